@@ -11,9 +11,8 @@ import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.OutputSupplier;
 import com.google.common.primitives.Primitives;
-import org.bukkit.Bukkit;
+import net.kingdomsofarden.crafty.internals.nms.NmsVersion;
 import org.bukkit.Material;
-import org.bukkit.Server;
 import org.bukkit.inventory.ItemStack;
 
 import java.io.BufferedInputStream;
@@ -102,6 +101,7 @@ public class NbtFactory {
     private Class<?> CRAFT_STACK;
     private Field CRAFT_HANDLE;
     private Field STACK_TAG;
+    private Method CRAFT_MIRROR;
 
     // Loading/saving compounds
     private LoadCompoundMethod LOAD_COMPOUND;
@@ -110,6 +110,9 @@ public class NbtFactory {
     // Shared instance
     private static NbtFactory INSTANCE;
 
+    // Whether wrappers reuse the wrapper objects they hand out for nested compounds and lists
+    private static volatile boolean CACHE_WRAPPERS;
+
     /**
      * Represents a root NBT compound.
      * <p>
@@ -293,6 +296,26 @@ public class NbtFactory {
         public Object getHandle();
     }
 
+    /**
+     * Set whether compound and list wrappers cache the wrappers they return for nested compounds and lists.
+     * <p>
+     * When disabled (the default), every lookup of a nested element creates a new lightweight wrapper over the
+     * same native tag, and no per-wrapper weak map is allocated. Enable this if wrapper identity is relied upon,
+     * or if the same nested elements are looked up many times through one long-lived wrapper.
+     * @param enabled - whether or not to cache wrappers.
+     */
+    public static void setWrapperCaching(boolean enabled) {
+        CACHE_WRAPPERS = enabled;
+    }
+
+    /**
+     * Determine whether compound and list wrappers cache nested wrappers.
+     * @return TRUE if caching is enabled, FALSE otherwise.
+     */
+    public static boolean isWrapperCaching() {
+        return CACHE_WRAPPERS;
+    }
+
     /**
      * Retrieve or construct a shared NBT factory.
      * @return The factory.
@@ -313,19 +336,19 @@ public class NbtFactory {
                 // with CraftBukkit or its derivatives. This does not work in MCPC+ however.
                 ClassLoader loader = NbtFactory.class.getClassLoader();
 
-                String packageName = getPackageName();
-                Class<?> offlinePlayer = loader.loadClass(packageName + ".CraftOfflinePlayer");
-
-                // Prepare NBT
-                COMPOUND_CLASS = getMethod(0, Modifier.STATIC, offlinePlayer, "getData").getReturnType();
-                BASE_CLASS = COMPOUND_CLASS.getSuperclass();
-                NBT_GET_TYPE = getMethod(0, Modifier.STATIC, BASE_CLASS, "getTypeId");
-                NBT_CREATE_TAG = getMethod(Modifier.STATIC, 0, BASE_CLASS, "createTag", byte.class);
+                String packageName = NmsVersion.getCraftBukkitPackage();
 
                 // Prepare CraftItemStack
                 CRAFT_STACK = loader.loadClass(packageName + ".inventory.CraftItemStack");
                 CRAFT_HANDLE = getField(null, CRAFT_STACK, "handle");
                 STACK_TAG = getField(null, CRAFT_HANDLE.getType(), "tag");
+                CRAFT_MIRROR = getMethod(Modifier.STATIC, 0, CRAFT_STACK, "asCraftMirror", CRAFT_HANDLE.getType());
+
+                // Prepare NBT - the item tag is a compound
+                COMPOUND_CLASS = STACK_TAG.getType();
+                BASE_CLASS = COMPOUND_CLASS.getSuperclass();
+                NBT_GET_TYPE = getMethod(0, Modifier.STATIC, BASE_CLASS, "getTypeId");
+                NBT_CREATE_TAG = getMethod(Modifier.STATIC, 0, BASE_CLASS, "createTag", byte.class);
 
                 // Loading/saving
                 String nmsPackage = BASE_CLASS.getPackage().getName();
@@ -337,7 +360,7 @@ public class NbtFactory {
                 SAVE_COMPOUND = getMethod(Modifier.STATIC, 0, STREAM_TOOLS, null, BASE_CLASS, DataOutput.class);
 
             } catch (ClassNotFoundException e) {
-                throw new IllegalStateException("Unable to find offline player.", e);
+                throw new IllegalStateException("Unable to find CraftItemStack.", e);
             }
         }
     }
@@ -351,18 +374,6 @@ public class NbtFactory {
         }
     }
 
-    private String getPackageName() {
-        Server server = Bukkit.getServer();
-        String name = server != null ? server.getClass().getPackage().getName() : null;
-
-        if (name != null && name.contains("craftbukkit")) {
-            return name;
-        } else {
-            // Fallback
-            return "org.bukkit.craftbukkit.v1_7_R3";
-        }
-    }
-
     @SuppressWarnings("unchecked")
     private Map<String, Object> getDataMap(Object handle) {
         return (Map<String, Object>) getFieldValue(
@@ -541,6 +552,92 @@ public class NbtFactory {
         return NbtFactory.fromCompound(tag);
     }
 
+    /**
+     * Retrieve the native NBT tag compound stored in an item stack, without constructing any wrappers.
+     * <p>
+     * The item stack must be a wrapper for a CraftItemStack.
+     * @param stack - the item stack.
+     * @return The native tag compound, or NULL if the stack has no tag.
+     */
+    public static Object getItemTagHandle(ItemStack stack) {
+        checkItemStack(stack);
+        Object nms = getFieldValue(get().CRAFT_HANDLE, stack);
+        return getFieldValue(INSTANCE.STACK_TAG, nms);
+    }
+
+    /**
+     * Retrieve the backing map of a native NBT compound. Values are native NBT tags.
+     * <p>
+     * Changes to this map are <b>not</b> type checked - this is intended for read paths only.
+     * @param nmsCompound - the native NBT compound.
+     * @return The backing map.
+     */
+    public static Map<String, Object> getNativeMap(Object nmsCompound) {
+        return get().getDataMap(nmsCompound);
+    }
+
+    /**
+     * Retrieve the backing list of a native NBT list. Elements are native NBT tags.
+     * <p>
+     * Changes to this list are <b>not</b> type checked - this is intended for read paths only.
+     * @param nmsList - the native NBT list.
+     * @return The backing list.
+     */
+    public static List<Object> getNativeList(Object nmsList) {
+        return get().getDataList(nmsList);
+    }
+
+    /**
+     * Retrieve the value of a native NBT long without boxing it.
+     * @param nmsLong - the native NBT long.
+     * @return The stored value.
+     */
+    public static long getNativeLong(Object nmsLong) {
+        try {
+            return get().getDataField(NbtType.TAG_LONG, nmsLong).getLong(nmsLong);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to retrieve long value of " + nmsLong, e);
+        }
+    }
+
+    /**
+     * Retrieve the value of a native NBT string.
+     * @param nmsString - the native NBT string.
+     * @return The stored value.
+     */
+    public static String getNativeString(Object nmsString) {
+        return (String) getFieldValue(get().getDataField(NbtType.TAG_STRING, nmsString), nmsString);
+    }
+
+    /**
+     * Determine if the given stack is a CraftItemStack, and can be read through the native accessors.
+     * @param stack - the stack to check.
+     * @return TRUE if it is, FALSE otherwise.
+     */
+    public static boolean isCraftItemStack(ItemStack stack) {
+        return stack != null && get().CRAFT_STACK.isAssignableFrom(stack.getClass());
+    }
+
+    /**
+     * Retrieve the native item stack wrapped by a CraftItemStack.
+     * @param stack - the stack.
+     * @return The native item stack, or NULL if the stack is not a CraftItemStack or represents air.
+     */
+    public static Object getItemHandle(ItemStack stack) {
+        if (!isCraftItemStack(stack))
+            return null;
+        return getFieldValue(INSTANCE.CRAFT_HANDLE, stack);
+    }
+
+    /**
+     * Construct a CraftItemStack that reads and writes through to the given native item stack.
+     * @param nmsStack - the native item stack.
+     * @return The CraftItemStack mirror.
+     */
+    public static ItemStack getCraftMirror(Object nmsStack) {
+        return (ItemStack) invokeMethod(get().CRAFT_MIRROR, null, nmsStack);
+    }
+
     /**
      * Retrieve a CraftItemStack version of the stack.
      * @param stack - the stack to convert.
@@ -793,7 +890,8 @@ public class NbtFactory {
         private final Object handle;
         private final Map<String, Object> original;
 
-        private final CachedNativeWrapper cache = new CachedNativeWrapper();
+        // Only created when wrapper caching is enabled
+        private CachedNativeWrapper cache;
 
         public ConvertedMap(Object handle, Map<String, Object> original) {
             this.handle = handle;
@@ -802,6 +900,10 @@ public class NbtFactory {
 
         // For converting back and forth
         protected Object wrapOutgoing(Object value) {
+            if (!CACHE_WRAPPERS)
+                return wrapNative(value);
+            if (cache == null)
+                cache = new CachedNativeWrapper();
             return cache.wrap(value);
         }
         protected Object unwrapIncoming(Object wrapped) {
@@ -895,7 +997,9 @@ public class NbtFactory {
         private final Object handle;
 
         private final List<Object> original;
-        private final CachedNativeWrapper cache = new CachedNativeWrapper();
+
+        // Only created when wrapper caching is enabled
+        private CachedNativeWrapper cache;
 
         public ConvertedList(Object handle, List<Object> original) {
             if (NBT_LIST_TYPE == null)
@@ -905,6 +1009,10 @@ public class NbtFactory {
         }
 
         protected Object wrapOutgoing(Object value) {
+            if (!CACHE_WRAPPERS)
+                return wrapNative(value);
+            if (cache == null)
+                cache = new CachedNativeWrapper();
             return cache.wrap(value);
         }
         protected Object unwrapIncoming(Object wrapped) {
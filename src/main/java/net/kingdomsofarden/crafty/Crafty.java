@@ -1,23 +1,43 @@
 package net.kingdomsofarden.crafty;
 
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
+import com.comphenix.attribute.NbtFactory;
+
 import net.kingdomsofarden.crafty.api.ItemManager;
 import net.kingdomsofarden.crafty.api.ModuleRegistrar;
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+import net.kingdomsofarden.crafty.core.TrackerIdGenerator;
 import net.kingdomsofarden.crafty.internals.ConfigurationManager;
+import net.kingdomsofarden.crafty.internals.CraftyCommand;
+import net.kingdomsofarden.crafty.internals.ItemCacheListener;
+import net.kingdomsofarden.crafty.internals.NBTUtil;
+import net.kingdomsofarden.crafty.internals.PartitionListener;
+import net.kingdomsofarden.crafty.internals.WarmStartFile;
+import net.kingdomsofarden.crafty.internals.sync.BungeeTransport;
+import net.kingdomsofarden.crafty.internals.sync.ItemSyncManager;
+import net.kingdomsofarden.crafty.internals.sync.LoopbackTransport;
+import net.kingdomsofarden.crafty.internals.sync.SyncTransport;
 
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class Crafty extends JavaPlugin {
     
+    private static final String WARM_START_FILE = "cache.dat";
+    
     private static Crafty instance;
     
     private ModuleRegistrar moduleRegistrar;
     private ConfigurationManager config;
     private ItemManager itemMan;
+    private ItemSyncManager itemSync;
+    private WarmStartFile warmStart;
 
     @Override
     public void onLoad() {
@@ -27,13 +47,7 @@ public class Crafty extends JavaPlugin {
 
     @Override
     public void onEnable() {
-        try { // Module Registration Lock
-            Field lock = ModuleRegistrar.class.getDeclaredField("registerLock");
-            lock.setAccessible(true);
-            lock.set(this.moduleRegistrar, true);
-        } catch(Exception e) {
-            e.printStackTrace();
-        }
+        this.moduleRegistrar.seal();
         try {
             this.config = new ConfigurationManager(this);
         } catch (IOException e) {
@@ -42,8 +56,60 @@ public class Crafty extends JavaPlugin {
             this.getServer().getPluginManager().disablePlugin(this);
             return;
         }
+        NbtFactory.setWrapperCaching(this.config.isNbtWrapperCaching());
+        if ("time".equalsIgnoreCase(this.config.getTrackerIdGenerator())) {
+            int node = this.config.getNodeId();
+            if (node < 0 || node >= TrackerIdGenerator.NODE_COUNT) {
+                node = new SecureRandom().nextInt(TrackerIdGenerator.NODE_COUNT);
+                this.getLogger().log(Level.WARNING, "No valid tracking node id configured, using " + node + " until restart");
+            }
+            NBTUtil.setTrackerIdGenerator(TrackerIdGenerator.timeOrdered(node));
+        }
         this.itemMan = new ItemManager(this);
-        
+        if (this.config.isWarmStart()) {
+            this.warmStart = WarmStartFile.open(new File(this.getDataFolder(), WARM_START_FILE), this.getLogger());
+            if (this.warmStart != null) {
+                this.itemMan.getItemCache().addSnapshotSource(this.warmStart);
+            }
+        }
+        this.getCommand("crafty").setExecutor(new CraftyCommand(this));
+        this.getServer().getPluginManager().registerEvents(new PartitionListener(this.itemMan.getItemCache()), this);
+        if (this.config.isEventInvalidation()) {
+            this.getServer().getPluginManager().registerEvents(
+                    new ItemCacheListener(this.itemMan.getItemCache()), this);
+        }
+        if (this.config.isSyncEnabled()) {
+            SyncTransport transport = "loopback".equalsIgnoreCase(this.config.getSyncTransport())
+                    ? new LoopbackTransport() : new BungeeTransport(this);
+            this.itemSync = new ItemSyncManager(this, this.itemMan.getItemCache(), transport,
+                    this.config.getSyncTimeToLive());
+            this.itemMan.getItemCache().addSnapshotSource(this.itemSync);
+            this.getServer().getPluginManager().registerEvents(this.itemSync, this);
+        }
+    }
+    
+    @Override
+    public void onDisable() {
+        if (this.itemSync != null) {
+            this.itemSync.stop();
+        }
+        if (this.warmStart != null) {
+            this.warmStart.close();
+        }
+        if (this.itemMan == null) {
+            return;
+        }
+        // Save every cached item, as their stacks are written out by the server after plugins are disabled
+        List<ItemSnapshot> snapshots = new ArrayList<ItemSnapshot>();
+        boolean warmStartEnabled = this.config.isWarmStart();
+        this.itemMan.getItemCache().shutdown(warmStartEnabled ? this.config.getWarmStartEntries() : 0, snapshots);
+        if (warmStartEnabled) {
+            try {
+                WarmStartFile.write(new File(this.getDataFolder(), WARM_START_FILE), snapshots);
+            } catch (IOException e) {
+                this.getLogger().log(Level.WARNING, "Unable to save the warm start cache", e);
+            }
+        }
     }
     
     public static Crafty getInstance() {
@@ -62,4 +128,11 @@ public class Crafty extends JavaPlugin {
         return this.itemMan;
     }
 
+    /**
+     * @return The item sync manager, or null if sync is disabled
+     */
+    public ItemSyncManager getItemSyncManager() {
+        return this.itemSync;
+    }
+
 }
@@ -1,19 +1,28 @@
 package net.kingdomsofarden.crafty.api;
 
+import java.lang.ref.Reference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 
 import net.kingdomsofarden.crafty.Crafty;
+import net.kingdomsofarden.crafty.core.ItemDataHandle;
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+import net.kingdomsofarden.crafty.core.MigrationTable;
+import net.kingdomsofarden.crafty.internals.BukkitItemDataHandle;
 import net.kingdomsofarden.crafty.internals.CacheKey;
-import net.kingdomsofarden.crafty.internals.ConfigurationManager;
+import net.kingdomsofarden.crafty.internals.ConfigSnapshot;
 import net.kingdomsofarden.crafty.internals.NBTUtil;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapter;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapters;
 
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
 
 /**
  * Represents an {@link ItemStack} tracked by the Crafty API. To retrieve an instance,
@@ -29,59 +38,128 @@ import org.bukkit.inventory.meta.ItemMeta;
  * </ul>
  * <br>
  * A {@link CraftyItem} loaded from cache will expire after 15 minutes since last access, at which point
- * the save/write method is called automatically. 
+ * the save/write method is called automatically. If weak item binding is enabled in the configuration,
+ * the cache does not keep the underlying native item stack alive - once it is garbage collected the
+ * CraftyItem is evicted and any changes not yet written using {@link #updateItem()} are discarded. Modules
+ * receive the ItemStack in createNewModule and deserialize; a module that keeps a reference to it keeps
+ * the item alive until it expires from cache.
  * 
  * @author Andrew2060
  */
 public final class CraftyItem {
     
-    private final UUID itemIdentifier;
+    private UUID itemIdentifier;
     
     private ItemStack item;
+    private Reference<?> itemReference;
     private HashMap<UUID,Module> modules;
     private Crafty plugin;
+    private boolean dirty;
+    private int structureVersion;
+    private ItemStats stats;
+    private long statsVersion;
+    private long fingerprint;
 
         
     public CraftyItem(CacheKey key, Crafty plugin) {
+        this(key, plugin, null);
+    }
+    
+    /**
+     * Wraps an item that has no tracker id yet, without modifying it. The item is assigned a tracker id
+     * and cached once a module is first added to it - Not intended to be called externally to the API plugin
+     * @param item
+     * @param plugin
+     */
+    public CraftyItem(ItemStack item, Crafty plugin) {
+        this.plugin = plugin;
+        this.item = item;
+        this.modules = new HashMap<UUID,Module>();
+    }
+    
+    /**
+     * Loads an item, taking module data from a snapshot received from another server where it still
+     * describes the item. Not intended to be called externally to the API plugin
+     * @param key
+     * @param plugin
+     * @param synced A snapshot of the item, or null to read the item NBT
+     */
+    public CraftyItem(CacheKey key, Crafty plugin, ItemSnapshot synced) {
         this.plugin = plugin;
         this.item = key.getItem();
         this.itemIdentifier = key.getItemUuid();
-        String moduleParse = plugin.getItemManager().getModules(item);
+        ItemDataHandle data = new BukkitItemDataHandle(item);
+        ConfigSnapshot config = plugin.getConfigurationManager().getSnapshot();
         this.modules = new HashMap<UUID,Module>();
-        if (moduleParse != null) {
-            String[] moduleParsed = moduleParse.split(":");
-            ModuleRegistrar registrar = plugin.getModuleRegistrar();
-            ConfigurationManager config = plugin.getConfigurationManager();
-            for (String idString : moduleParsed) {
-                try {
-                    UUID moduleId = UUID.fromString(idString);
-                    //Handle migrations if necessary
-                    UUID migratedId = config.getMigratedModule(moduleId);
-                    while (migratedId != null) {
-                        moduleId = migratedId;
-                        migratedId = config.getMigratedModule(migratedId);
-                    }
-                    Module modToAdd = registrar.getModule(moduleId, item);
-                    if (modToAdd != null) {
-                        this.modules.put(moduleId, modToAdd);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    continue;
+        // Items last saved under the current configuration need no migration and no rewrite
+        boolean current = ItemStorageFormat.getSchemaStamp(data) == config.getSchemaStamp();
+        if (!current || !NBTUtil.hasCraftyCompound(item)) {
+            NBTUtil.migrateLegacyData(item, plugin.getModuleRegistrar().getRegisteredModules().keySet());
+        }
+        this.fingerprint = ItemStorageFormat.getFingerprint(data);
+        // Equivalent to synced.matches(data), without reading the stamp and fingerprint again
+        if (current && synced != null && synced.getSchemaStamp() == config.getSchemaStamp()
+                && synced.getFingerprint() == this.fingerprint) {
+            this.loadModules(synced);
+        } else {
+            this.loadModules(data, current ? null : config.getMigrations());
+        }
+        for (Module mod : plugin.getModuleRegistrar().inDependencyOrder(this.modules)) {
+            mod.postLoad(this);
+        }
+        if (!current) {
+            this.updateItem();
+        }
+    }
+    
+    private void loadModules(ItemDataHandle data, MigrationTable migrations) {
+        String moduleParse = ItemStorageFormat.getModuleList(data);
+        if (moduleParse == null) {
+            return;
+        }
+        List<String> malformed = new ArrayList<String>();
+        ModuleRegistrar registrar = plugin.getModuleRegistrar();
+        for (UUID storedId : ItemStorageFormat.decodeModuleList(moduleParse, malformed)) {
+            try {
+                UUID moduleId = migrations == null ? storedId : migrations.resolve(storedId); //Handle migrations if necessary
+                Module modToAdd = registrar.getModule(moduleId, item);
+                if (modToAdd != null) {
+                    this.modules.put(moduleId, modToAdd);
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+                continue;
             }
         }
-        for (Module mod : this.modules.values()) {
-            mod.postLoad(this);
+        for (String idString : malformed) {
+            plugin.getLogger().log(Level.WARNING, "Skipping malformed module id " + idString + " on item " 
+                    + this.itemIdentifier);
+        }
+    }
+    
+    private void loadModules(ItemSnapshot synced) {
+        ModuleRegistrar registrar = plugin.getModuleRegistrar();
+        for (Map.Entry<UUID, String> entry : synced.getModuleData().entrySet()) {
+            try {
+                Module modToAdd = registrar.loadFromData(entry.getKey(), entry.getValue(), item);
+                if (modToAdd != null) {
+                    this.modules.put(entry.getKey(), modToAdd);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                continue;
+            }
         }
-        this.updateItem();
     }
     
     /**
      * All items being tracked by Crafty are assigned a persistent unique identifier that allows
-     * for tracking of that specific item.
+     * for tracking of that specific item. The identifier is assigned when module data is first
+     * written to the item. Items of materials configured for content identity are instead identified
+     * by a hash of their module data, shared by all items with the same data, which changes whenever
+     * the item is saved with different data.
      * 
-     * @return A UUID representing the item's tracking ID
+     * @return A UUID representing the item's tracking ID, or null if no module has been written yet
      */
     public UUID getItemTrackerId() {
         return this.itemIdentifier;
@@ -92,7 +170,14 @@ public final class CraftyItem {
      * @return An ItemStack representation of this CraftyItem
      */
     public ItemStack getItem() {
-        return this.item;
+        if (this.item != null) {
+            return this.item;
+        }
+        Object referent = this.itemReference != null ? this.itemReference.get() : null;
+        if (referent == null || referent instanceof ItemStack) {
+            return (ItemStack) referent;
+        }
+        return NmsAdapters.get().asMirror(referent); // The Bukkit wrapper is not held, mirror the native stack
     }
     
     /**
@@ -114,7 +199,8 @@ public final class CraftyItem {
     }
     
     /**
-     * Gets a Module instance associated with this item by UUID
+     * Gets a Module instance associated with this item by UUID. Use {@link #editModule(UUID)} to get
+     * an instance that can be changed.
      * @param id - The unique identifier of the module to get
      * @return The module instance attached to this item with the parameter UUID, or null if not found
      */
@@ -126,6 +212,47 @@ public final class CraftyItem {
         }
     }
     
+    /**
+     * Gets a Module instance associated with this item by name for modification, see {@link #editModule(UUID)}
+     * @param name - The name of the module to get
+     * @return The module instance private to this item, or null if not found
+     */
+    public <T extends Module> T editModule(String name) {
+        return this.editModule(this.plugin.getModuleRegistrar().getModuleUuid(name));
+    }
+    
+    /**
+     * Gets a Module instance associated with this item by UUID for modification. {@link ImmutableModule}s
+     * are shared between items storing the same data - a shared instance is replaced with a copy private to
+     * this item first, so that changes do not affect other items. Other modules are returned as is.<br>
+     * <br>
+     * The item is marked as having unsaved changes, see {@link #hasUnsavedChanges()}. Changes are not written
+     * automatically. Make sure to call {@link #updateItem()}!
+     * @param id - The unique identifier of the module to get
+     * @return The module instance private to this item, or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Module> T editModule(UUID id) {
+        Module m = this.getModule(id);
+        if (m == null) {
+            return null;
+        }
+        if (!m.isShared()) {
+            this.dirty = true;
+            return (T) m;
+        }
+        ItemStack item = this.getItem();
+        Module copy = item == null ? null : this.plugin.getModuleRegistrar().copy(m, item);
+        if (copy == null) {
+            return null;
+        }
+        this.modules.put(id, copy);
+        this.structureVersion++;
+        this.dirty = true;
+        copy.postLoad(this);
+        return (T) copy;
+    }
+    
     /**
      * Adds a new module to the item by name by calling a module's createNewModule method. 
      * The module must have been registered using {@link ModuleRegistrar#registerModule(String, UUID, Class)} 
@@ -158,10 +285,17 @@ public final class CraftyItem {
         if (id == null) {
             return;
         }
-        Module m = this.plugin.getModuleRegistrar().createModule(id, this.item, initArgs);
+        ItemStack item = this.getItem();
+        if (item == null) {
+            return;
+        }
+        Module m = this.plugin.getModuleRegistrar().createModule(id, item, initArgs);
         if (m != null) {
             this.modules.put(id, m);
+            this.structureVersion++;
+            this.dirty = true;
             m.postLoad(this);
+            this.track(item);
         }
     }
     
@@ -174,12 +308,54 @@ public final class CraftyItem {
     public void addModule(Module mod) {
         if (mod != null) {
             this.modules.put(mod.getIdentifier(), mod);
+            this.structureVersion++;
+            this.dirty = true;
             mod.postLoad(this);
+            this.track(this.getItem());
         } else {
             throw new IllegalArgumentException("The supplied module cannot be null!");
         }
     }
     
+    /**
+     * Files an untracked item in cache once its first module is added, so that later lookups of the stack
+     * return this instance. The item is assigned a tracker id; items of materials configured for content
+     * identity are saved instead, as their id is derived from their module data.
+     * @param item The current item, or null if it no longer exists
+     */
+    private void track(ItemStack item) {
+        if (this.itemIdentifier != null || item == null) {
+            return;
+        }
+        if (plugin.getConfigurationManager().isContentIdentity(item.getType())) {
+            this.updateItem();
+        } else {
+            CacheKey key = NBTUtil.getCacheKey(item);
+            this.itemIdentifier = key.getItemUuid();
+            plugin.getItemManager().getItemCache().adopt(null, key, this);
+        }
+    }
+    
+    /**
+     * Gets the combined vanilla attributes of all modules on this item. The totals are only recomputed
+     * when a module has been added or removed or has set a vanilla attribute since the last call.
+     * @return The stats of this item - the same instance is returned and updated on every call
+     */
+    public ItemStats getStats() {
+        long version = ((long) this.structureVersion << 32);
+        for (Module m : this.modules.values()) {
+            version += m.getAttributeVersion();
+        }
+        if (this.stats == null) {
+            this.stats = new ItemStats();
+        } else if (version == this.statsVersion) {
+            return this.stats;
+        }
+        this.stats.compute(this.modules.values());
+        this.statsVersion = version;
+        return this.stats;
+    }
+    
     /**
      * Checks whether a given item has a module with the given name, slower than 
      * lookup by UUID
@@ -209,33 +385,43 @@ public final class CraftyItem {
      * settings for module ordering.
      */
     public void updateItem() {
-        StringBuilder uuidStringBuilder = new StringBuilder();
-        boolean write = false; // Used for determining whether a colon delimiter needs to be prepended
-        for (Module m : this.modules.values()) {
+        ItemStack item = this.getItem();
+        if (item == null) {
+            return; // Weakly bound stack has been collected, nothing left to write to
+        }
+        if (this.itemIdentifier == null && this.modules.isEmpty()) {
+            return; // Leave untracked items untouched until they have data to store
+        }
+        boolean contentIdentity = plugin.getConfigurationManager().isContentIdentity(item.getType());
+        if (!contentIdentity) {
+            this.track(item); // Modules may have been removed again since the first was added
+        }
+        ItemDataHandle data = new BukkitItemDataHandle(item);
+        ConfigSnapshot config = plugin.getConfigurationManager().getSnapshot();
+        List<UUID> storedIds = new ArrayList<UUID>(this.modules.size());
+        Map<UUID, String> stored = new HashMap<UUID, String>();
+        for (Module m : plugin.getModuleRegistrar().inDependencyOrder(this.modules)) {
             if (m == null) {
                 Crafty.getInstance().getLogger().log(Level.SEVERE,
                         "Null mod for whatever reason was attempted to be written...skipping!") ;
                 continue;
             }
             try {
-                if (write) {
-                    uuidStringBuilder.append(":");
-                } else {
-                    write = true;
-                }
                 UUID id = m.getIdentifier();
                 if (id == null) {
-                    System.out.println("invalid - id is null for " + m.getClass().getName());
+                    plugin.getLogger().log(Level.WARNING, "Skipping module " + m.getClass().getName()
+                            + " as it has a null identifier and cannot be stored");
                     continue;
                 }
-                uuidStringBuilder.append(m.getIdentifier().toString());
+                storedIds.add(id);
                 String store = m.serialize();
+                stored.put(id, store);
                 if (store != null) {
-                    NBTUtil.writeData(m.getIdentifier(), store, this.item);
+                    ItemStorageFormat.setModuleData(data, id, store);
                 } else {
                     continue;
                 }
-                NBTUtil.writeVanillaAttributes(m.getVanillaAttributes().values(), this.item);
+                NBTUtil.writeVanillaAttributes(m.getVanillaAttributes().values(), item);
 
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error serializing " + m.getClass().getName());
@@ -243,11 +429,86 @@ public final class CraftyItem {
                 continue;
             }
         }
-        List<String> lore = plugin.getConfigurationManager().getOrderedLore(this.modules);
-        ItemMeta meta = item.getItemMeta();
-        meta.setLore(lore); 
-        item.setItemMeta(meta);
-        this.plugin.getItemManager().saveModules(uuidStringBuilder.toString(), item);
+        this.writeLore(item, config);
+        ItemStorageFormat.setModuleList(data, ItemStorageFormat.encodeModuleList(storedIds));
+        ItemStorageFormat.setSchemaStamp(data, config.getSchemaStamp());
+        long fingerprint = ItemStorageFormat.fingerprint(stored);
+        ItemStorageFormat.setFingerprint(data, fingerprint);
+        this.fingerprint = fingerprint;
+        if (contentIdentity) {
+            long itemType = ItemStorageFormat.mix(item.getType().name().hashCode(), item.getDurability());
+            this.setTracker(item, data, ItemStorageFormat.contentId(itemType, fingerprint));
+        }
+        this.dirty = false;
+    }
+    
+    private void setTracker(ItemStack item, ItemDataHandle data, UUID tracker) {
+        if (tracker.equals(this.itemIdentifier)) {
+            return;
+        }
+        CacheKey previous = this.itemIdentifier == null ? null : new CacheKey(item, this.itemIdentifier);
+        ItemStorageFormat.setTracker(data, tracker);
+        this.itemIdentifier = tracker;
+        plugin.getItemManager().getItemCache().adopt(previous, new CacheKey(item, tracker), this);
+    }
+    
+    /**
+     * Re-renders only the lore of the item from its modules, without writing module data. Used by
+     * the cache when the configured lore order changes - Not intended to be called externally to
+     * the API plugin
+     */
+    public void updateLore() {
+        ItemStack item = this.getItem();
+        if (item != null) {
+            this.writeLore(item, plugin.getConfigurationManager().getSnapshot());
+        }
+    }
+    
+    private void writeLore(ItemStack item, ConfigSnapshot config) {
+        NBTUtil.writeLore(config.getOrderedLore(this.modules), item);
+    }
+    
+    /**
+     * Captures the current module data of the item. Not intended to be called externally to the API plugin
+     * @param schemaStamp The schema stamp the item is saved under
+     * @return The snapshot, or null if the item is untracked or a module fails to serialize or stores no data
+     */
+    public ItemSnapshot snapshot(long schemaStamp) {
+        if (this.itemIdentifier == null) {
+            return null;
+        }
+        Map<UUID, String> moduleData = new LinkedHashMap<UUID, String>();
+        for (Map.Entry<UUID, Module> entry : this.modules.entrySet()) {
+            String data;
+            try {
+                data = entry.getValue().serialize();
+            } catch (Exception e) {
+                return null; // Leave it to the item NBT, which reports the failure on save
+            }
+            if (data == null) {
+                return null;
+            }
+            moduleData.put(entry.getKey(), data);
+        }
+        return new ItemSnapshot(this.itemIdentifier.getMostSignificantBits(),
+                this.itemIdentifier.getLeastSignificantBits(), schemaStamp, moduleData);
+    }
+    
+    /**
+     * Gets the fingerprint of the module data this item was loaded with or last saved, used by the cache
+     * to tell whether a stack still holds that data - Not intended to be called externally to the API plugin
+     * @return The fingerprint, or 0 if the item was loaded without one
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+    
+    /**
+     * @return True if modules have been added or retrieved for modification with {@link #editModule(UUID)} since
+     * the last call to {@link #updateItem()}
+     */
+    public boolean hasUnsavedChanges() {
+        return this.dirty;
     }
     
     /**
@@ -281,6 +542,7 @@ public final class CraftyItem {
     public boolean removeModule(UUID id) {
         boolean flag = this.modules.remove(id) != null;
         if (flag) {
+            this.structureVersion++;
             this.updateItem();
         }
         return flag;
@@ -293,6 +555,46 @@ public final class CraftyItem {
      */
     public void setItem(ItemStack item) {
         this.item = item;
+        this.itemReference = null;
+    }
+    
+    /**
+     * Makes this CraftyItem hold its ItemStack only through the given reference, so that the cache does not
+     * keep the stack alive. Called by cache when weak item binding is enabled - Not intended to be called
+     * externally to the API plugin
+     * @param reference A reference to the native item stack backing the current item, or to the current
+     * item itself if it is not natively backed
+     */
+    public void setItemReference(Reference<?> reference) {
+        this.item = null;
+        this.itemReference = reference;
+    }
+    
+    /**
+     * Internal accessor for the reference set by {@link #setItemReference(Reference)} - do not use
+     * @return The reference through which the ItemStack is held, or null if it is held directly
+     */
+    public Reference<?> getItemReference() {
+        return this.itemReference;
+    }
+    
+    /**
+     * Checks whether this CraftyItem represents the given stack without creating a Bukkit mirror of the
+     * native stack it is bound to. Internal utility method - do not use
+     * @param stack
+     * @return Whether the stack is the bound ItemStack, or another Bukkit mirror of the same native stack
+     */
+    public boolean isBoundTo(ItemStack stack) {
+        Object bound = this.item != null ? this.item : (this.itemReference != null ? this.itemReference.get() : null);
+        if (bound == stack) {
+            return true;
+        }
+        if (bound == null || stack == null) {
+            return false;
+        }
+        NmsAdapter nms = NmsAdapters.get();
+        Object handle = nms.getHandle(stack);
+        return handle != null && handle == (bound instanceof ItemStack ? nms.getHandle((ItemStack) bound) : bound);
     }
 
 
@@ -0,0 +1,17 @@
+package net.kingdomsofarden.crafty.api;
+
+/**
+ * Marks a {@link Module} whose state is fully described by its serialized data. Instances of such modules
+ * loaded from the same data are shared between all items that store it, rather than deserialized for each
+ * item. Shared instances must not be changed in place - use {@link CraftyItem#editModule(java.util.UUID)}
+ * to get a copy private to one item before making changes.<br>
+ * <br>
+ * As a shared instance belongs to many items, implementations should not keep a reference to the
+ * ItemStack passed to deserialize, and {@link Module#postLoad(CraftyItem)} is called once for every
+ * item that loads it and should not store per-item state.
+ *
+ * @author Andrew2060
+ */
+public interface ImmutableModule {
+
+}
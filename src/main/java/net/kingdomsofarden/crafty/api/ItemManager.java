@@ -4,18 +4,20 @@
 
 package net.kingdomsofarden.crafty.api;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
 
 import net.kingdomsofarden.crafty.Crafty;
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+import net.kingdomsofarden.crafty.internals.BukkitItemDataHandle;
 import net.kingdomsofarden.crafty.internals.CacheKey;
+import net.kingdomsofarden.crafty.internals.CachePartitions;
 import net.kingdomsofarden.crafty.internals.ItemCache;
 import net.kingdomsofarden.crafty.internals.NBTUtil;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapter;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapters;
 
-import org.bukkit.Bukkit;
-import org.bukkit.Server;
+import org.bukkit.Material;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 
 /**
@@ -28,10 +30,15 @@ import org.bukkit.inventory.ItemStack;
  */
 public final class ItemManager {
      
-    private static final UUID MODULE_STORAGE_KEY = UUID.fromString("65bd4610-a0d8-11e3-a5e2-0800200c9a66");
+    private static final ThreadLocal<ModuleView> VIEWS = new ThreadLocal<ModuleView>() {
+        @Override
+        protected ModuleView initialValue() {
+            return new ModuleView();
+        }
+    };
+    private Crafty plugin;
     private ItemCache cache;
-    private final Class<?> craftItemStackClass;
-    private final Constructor<?> craftItemStackCtor;
+    private final NmsAdapter nms;
     
     
     /**
@@ -40,34 +47,22 @@ public final class ItemManager {
      * @param plugin - The plugin instance for internal usage, do not instantiate directly
      */
     public ItemManager(Crafty plugin) {
+        this.plugin = plugin;
         try {
+            this.nms = NmsAdapters.load(plugin.getLogger());
             this.cache = new ItemCache(plugin);
-            this.craftItemStackClass = Class.forName(this.getPackageName() + ".inventory.CraftItemStack");
-            this.craftItemStackCtor = craftItemStackClass.getDeclaredConstructor(ItemStack.class);
-            this.craftItemStackCtor.setAccessible(true);
         } catch (Exception e) {
             throw new UnsupportedOperationException("Bukkit Version not Supported!", e);
         }
     }
     
-    private String getPackageName() {
-        Server server = Bukkit.getServer();
-        String name = server != null ? server.getClass().getPackage().getName() : null;
-        
-        if (name != null && name.contains("craftbukkit")) {
-            return name;
-        } else {
-            return "org.bukkit.craftbukkit.v1_7_R3"; 
-        }
-    } 
-    
     /**
      * Gets a colon delimited string representation of all modules on the item
      * @param item
      * @return A string representation of the modules on the item, or null if none exists
      */
     public String getModules(ItemStack item) {
-        return NBTUtil.getData(MODULE_STORAGE_KEY, item);
+        return ItemStorageFormat.getModuleList(new BukkitItemDataHandle(item));
     }
     
     /**
@@ -76,8 +71,7 @@ public final class ItemManager {
      * @param item
      */
     public void saveModules(String modules, ItemStack item) {
-        NBTUtil.writeData(MODULE_STORAGE_KEY, modules, item);
-        return;
+        ItemStorageFormat.setModuleList(new BukkitItemDataHandle(item), modules);
     }
 
     /**
@@ -89,11 +83,13 @@ public final class ItemManager {
      * @return Whether the given item is nms backed (compatible with Crafty)
      */
     public boolean isCompatible(ItemStack item) {
-        return this.craftItemStackClass.isAssignableFrom(item.getClass()) ;
+        return this.nms.isCraftItemStack(item);
     }
 
     /**
-     * Checks whether a given {@link ItemStack} is tagged as a custom item
+     * Checks whether a given {@link ItemStack} is tagged as a custom item. Items are tagged when a module
+     * is first added to them, so items returned by {@link #createCraftyItem(ItemStack)} are not tagged
+     * until then.
      * @param item - The item to check
      * @return true if this is a custom item, false otherwise
      */
@@ -102,45 +98,138 @@ public final class ItemManager {
     }
     
     /**
-     * Marks a {@link ItemStack} as an item supported by this API.
-     * The converted ItemStack might be different from the parameter ItemStack   
+     * Converts an {@link ItemStack} into a format supported by this API.
+     * The converted ItemStack might be different from the parameter ItemStack.
+     * The item is not tagged as a custom item, see {@link #isCraftyItem(ItemStack)}, until a module is
+     * first added to it through {@link #getCraftyItem(ItemStack)}.
      *
      * @param item - The item to convert
      * @return The converted itemstack, or the same itemstack if it is already in a compatible format,
      * or null if instantiation fails
      */
     public ItemStack createCraftyItem(ItemStack item) {
-        if (isCraftyItem(item)) {
+        if (isCompatible(item)) {
             return item;
         } else { 
             try {
-                ItemStack cItem = (ItemStack) craftItemStackCtor.newInstance(item);
-                NBTUtil.getCacheKey(cItem); //Add a tracking key to the given item
-                return cItem;
-            } catch (InstantiationException | IllegalAccessException
-                    | IllegalArgumentException | InvocationTargetException e) {
+                return this.nms.asCraftCopy(item); // The tracking key is added when the first module is added
+            } catch (RuntimeException e) {
                 e.printStackTrace();
                 return null;
             }
         }
     }
     
+    /**
+     * Saves an item and captures it as a template for stamping copies, see {@link ItemTemplate}.
+     * Later changes to the prototype do not affect the template.
+     * @param prototype - The item to copy, with all of its modules added
+     * @return The template, or null if the prototype's item no longer exists
+     */
+    public ItemTemplate createTemplate(CraftyItem prototype) {
+        prototype.updateItem(); // Modules may have changed without being saved
+        ItemStack item = prototype.getItem();
+        if (item == null) {
+            return null;
+        }
+        ItemStack copy = item.clone();
+        UUID tracker = prototype.getItemTrackerId();
+        if (tracker != null && !ItemStorageFormat.isContentId(tracker.getMostSignificantBits())) {
+            NBTUtil.removeData(ItemStorageFormat.ITEM_TRACKER, copy);
+        }
+        return new ItemTemplate(copy);
+    }
+    
     /**
      * Gets a {@link CraftyItem} from the parameter itemstack provided it has been converted
-     * to a CraftyItem already
+     * to a CraftyItem already. Reading an item never modifies it - an untracked item is only assigned
+     * a tracker id and cached when a module is first added to it with {@link CraftyItem#addModule(String, Object...)}
      * @param item - The item to get the {@link CraftyItem} for
      * @return A {@link CraftyItem} containing a set of modules as well as various utility methods
      */
     public CraftyItem getCraftyItem(ItemStack item) {
+        return this.getCraftyItem(item, null);
+    }
+    
+    /**
+     * Gets a {@link CraftyItem} from the parameter itemstack provided it has been converted
+     * to a CraftyItem already, and files it in cache under the holder of the inventory it is in.
+     * Items held by a player (inventory or ender chest) are flushed and evicted together when the
+     * player quits, and items in a block container when its chunk unloads, rather than expiring
+     * individually. Items looked up through {@link #getCraftyItem(ItemStack)} are filed as well, once
+     * the inventory holding them is closed or its owner is flushed - passing the holder files them
+     * right away. Untracked items are not cached until a module is first added to them.
+     * @param item - The item to get the {@link CraftyItem} for
+     * @param holder - The holder of the inventory containing the item
+     * @return A {@link CraftyItem} containing a set of modules as well as various utility methods
+     */
+    public CraftyItem getCraftyItem(ItemStack item, InventoryHolder holder) {
         if (!this.isCompatible(item)) {
             return null;
         }
-        try {
-            return cache.get(NBTUtil.getCacheKey(item));
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-            return null;
+        CacheKey key = NBTUtil.peekCacheKey(item);
+        if (key == null) {
+            // Untracked items are not tagged or cached until a module is written to them
+            return item.getType() == Material.AIR ? null : new CraftyItem(item, this.plugin);
         }
+        return cache.get(key, CachePartitions.getOwner(holder));
+    }
+    
+    /**
+     * Reads a single module from an item without loading a {@link CraftyItem} or populating cache. 
+     * Intended for frequent read-only queries (e.g. in damage handlers) - use {@link #getCraftyItem(ItemStack)}
+     * for anything that modifies the item.<br>
+     * <br>
+     * The returned view is reused by the next call to this method on the same thread, and must not be retained.
+     * The view only holds on to the item while a module may still be loaded from the item's saved data.
+     * @param item - The item to read from
+     * @param key - The key of the module to read
+     * @return A view of the module, which is absent if the item does not have the module
+     */
+    public ModuleView peek(ItemStack item, ModuleKey key) {
+        ModuleView view = VIEWS.get();
+        view.reset(key);
+        if (key == null || item == null || !this.isCompatible(item)) {
+            return view;
+        }
+        CacheKey cacheKey = NBTUtil.peekCacheKey(item);
+        if (cacheKey == null) {
+            return view;
+        }
+        CraftyItem cached = this.cache.getIfPresent(cacheKey);
+        if (cached != null && cached.isBoundTo(item)) {
+            Module live = cached.getModule(key.getIdentifier());
+            if (live != null) {
+                view.setLive(live);
+            }
+            return view;
+        }
+        String modules = this.getModules(item);
+        if (modules == null || !this.listsModule(modules, key)) {
+            return view;
+        }
+        view.setStored(NBTUtil.getData(key.getIdentifier(), item), item);
+        return view;
+    }
+    
+    private boolean listsModule(String modules, ModuleKey key) {
+        if (modules.contains(key.getIdentifierString())) {
+            return true;
+        }
+        for (UUID source : this.plugin.getConfigurationManager().getMigrations().getSources(key.getIdentifier())) {
+            if (modules.contains(source.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Internal accessor for the item cache - do not use
+     * @return The cache backing {@link #getCraftyItem(ItemStack)}
+     */
+    public ItemCache getItemCache() {
+        return this.cache;
     }
     
     /**
@@ -148,11 +237,7 @@ public final class ItemManager {
      * @param key CacheKey representing the item to refresh
      */
     public void refresh(CacheKey key) {
-        try {
-            this.cache.get().get(key);
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }        
+        this.cache.refresh(key);
     }
     
 }
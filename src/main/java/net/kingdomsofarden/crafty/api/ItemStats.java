@@ -0,0 +1,99 @@
+package net.kingdomsofarden.crafty.api;
+
+import java.util.Arrays;
+
+import net.kingdomsofarden.crafty.internals.AttributeInfo;
+
+import com.comphenix.attribute.Attributes.AttributeType;
+
+/**
+ * The vanilla attributes of all modules on a {@link CraftyItem}, folded into per-attribute totals so that the
+ * effective value of an attribute can be computed without walking the modules. Obtain through
+ * {@link CraftyItem#getStats()}, which recomputes the totals only after a module was added, removed or set a
+ * vanilla attribute.<br>
+ * <br>
+ * Operations combine as they do in vanilla: {@link AttributeOperation#ADD_NUMBER} amounts are summed onto the
+ * base value, {@link AttributeOperation#MULTIPLY_PERCENTAGE} amounts are summed and scale that result once, and
+ * each {@link AttributeOperation#ADD_PERCENTAGE} amount multiplies the result by (1 + amount).
+ * 
+ * @author Andrew2060
+ */
+public final class ItemStats {
+
+    private static final VanillaAttribute[] ATTRIBUTES = VanillaAttribute.values();
+    private static final int OPERATIONS = AttributeOperation.values().length;
+
+    private static final int ADD = 0;
+    private static final int PERCENT = 1;
+    private static final int MULTIPLY = 2;
+
+    // Indexed by attribute ordinal * OPERATIONS + operation id
+    private final double[] totals;
+
+    ItemStats() {
+        this.totals = new double[ATTRIBUTES.length * OPERATIONS];
+    }
+
+    /**
+     * Recomputes the totals from the given modules
+     * @param modules
+     */
+    void compute(Iterable<Module> modules) {
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            this.totals[i * OPERATIONS + ADD] = 0;
+            this.totals[i * OPERATIONS + PERCENT] = 0;
+            this.totals[i * OPERATIONS + MULTIPLY] = 1;
+        }
+        for (Module m : modules) {
+            for (AttributeInfo info : m.getVanillaAttributes().values()) {
+                int index = indexOf(info.getType());
+                if (index == -1) {
+                    continue;
+                }
+                int op = info.getOperation().getId();
+                if (op == MULTIPLY) {
+                    this.totals[index * OPERATIONS + op] *= 1 + info.getAmount();
+                } else {
+                    this.totals[index * OPERATIONS + op] += info.getAmount();
+                }
+            }
+        }
+    }
+
+    private static int indexOf(AttributeType type) {
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            if (ATTRIBUTES[i].nbtType == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param attribute
+     * @param operation
+     * @return The combined amount of all modifiers of an attribute with the given operation - a sum for
+     * {@link AttributeOperation#ADD_NUMBER} and {@link AttributeOperation#MULTIPLY_PERCENTAGE}, and a product
+     * of (1 + amount) for {@link AttributeOperation#ADD_PERCENTAGE}
+     */
+    public double get(VanillaAttribute attribute, AttributeOperation operation) {
+        return this.totals[attribute.ordinal() * OPERATIONS + operation.operation.getId()];
+    }
+
+    /**
+     * @param attribute
+     * @param base The base value of the attribute
+     * @return The value of the attribute after all modifiers of the item are applied
+     */
+    public double apply(VanillaAttribute attribute, double base) {
+        int i = attribute.ordinal() * OPERATIONS;
+        return (base + this.totals[i + ADD]) * (1 + this.totals[i + PERCENT]) * this.totals[i + MULTIPLY];
+    }
+
+    /**
+     * @return A copy of the totals, indexed by attribute ordinal * 3 + operation id
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(this.totals, this.totals.length);
+    }
+}
@@ -0,0 +1,69 @@
+package net.kingdomsofarden.crafty.api;
+
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+import net.kingdomsofarden.crafty.internals.BukkitItemDataHandle;
+import net.kingdomsofarden.crafty.internals.NBTUtil;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * A saved copy of a {@link CraftyItem} that new items can be stamped from. Stamping copies the prototype's
+ * stored NBT - module data, lore and vanilla attributes - and gives the copy a tracker id of its own, without
+ * instantiating modules or rendering lore. Items tracked by content keep the prototype's shared id instead.
+ * Intended for generating many items with the same modules, e.g. loot.<br>
+ * <br>
+ * Templates are identified by their content: two templates with the same fingerprint store the same module
+ * data. To retrieve an instance, use {@link ItemManager#createTemplate(CraftyItem)}.
+ *
+ * @author Andrew2060
+ */
+public final class ItemTemplate {
+
+    private final ItemStack prototype;
+    private final long fingerprint;
+    private final boolean assignTracker;
+
+    ItemTemplate(ItemStack prototype) {
+        this.prototype = prototype;
+        BukkitItemDataHandle data = new BukkitItemDataHandle(prototype);
+        this.fingerprint = ItemStorageFormat.getFingerprint(data);
+        // Items tracked by content keep the prototype's id, so that copies stack with each other
+        this.assignTracker = ItemStorageFormat.getModuleList(data) != null && ItemStorageFormat.getTracker(data) == null;
+    }
+
+    /**
+     * Stamps a new item from this template
+     * @return A new item with the modules of the prototype and a fresh tracker id
+     */
+    public ItemStack create() {
+        return this.create(this.prototype.getAmount());
+    }
+
+    /**
+     * Stamps a new item from this template
+     * @param amount The stack size of the new item
+     * @return A new item with the modules of the prototype and a fresh tracker id
+     */
+    public ItemStack create(int amount) {
+        ItemStack item = this.prototype.clone();
+        item.setAmount(amount);
+        if (this.assignTracker) {
+            NBTUtil.getCacheKey(item); // Assigns a new tracker
+        }
+        return item;
+    }
+
+    /**
+     * @return The fingerprint of the module data stored by this template, or 0 if it stores none
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * @return A copy of the prototype item, without a tracker id unless it is tracked by content
+     */
+    public ItemStack getPrototype() {
+        return this.prototype.clone();
+    }
+}
@@ -37,6 +37,10 @@ import java.util.UUID;
  *     <li>
  *         Alternatively, using #postLoad(CraftyItem) is recommended as this is run after all initial data is loaded.
  *     </li>
+ *     <li>
+ *         Modules should not keep a reference to the ItemStack they are given. With weak item binding enabled,
+ *         such a reference keeps the item alive until it expires from cache.
+ *     </li>
  * </ul>
  * Modules must also implement the following static methods:<br>
  * <ul>
@@ -88,6 +92,8 @@ public abstract class Module {
     private UUID identifier = null;
     private String name = null;
     private HashMap<UUID, AttributeInfo> vanillaAttributes = new HashMap<>();
+    private int attributeVersion = 0;
+    private boolean shared = false;
 
     final void setIdentifier(UUID id) {
         this.identifier = id;
@@ -124,7 +130,8 @@ public abstract class Module {
 
     /**
      * Gets called after all modules have been loaded - can be used to obtain data from other modules
-     * as this is not doable in the Module constructor
+     * as this is not doable in the Module constructor. The postLoad of any dependencies declared through
+     * {@link ModuleRegistrar#registerModule(String, UUID, Class, UUID...)} is called first.
      *
      * @param item - The CraftyItem to which the module is being added
      */
@@ -167,10 +174,29 @@ public abstract class Module {
 
         this.vanillaAttributes.put(identifier, new AttributeInfo(identifier, name,
                 type.nbtType, operation.operation, value));
+        this.attributeVersion++;
     }
 
     HashMap<UUID, AttributeInfo> getVanillaAttributes() {
         return this.vanillaAttributes;
     }
 
+    final void setShared() {
+        this.shared = true;
+    }
+
+    /**
+     * @return Whether this instance is an {@link ImmutableModule} shared between items
+     */
+    final boolean isShared() {
+        return this.shared;
+    }
+
+    /**
+     * @return A counter incremented whenever a vanilla attribute is set
+     */
+    int getAttributeVersion() {
+        return this.attributeVersion;
+    }
+
 }
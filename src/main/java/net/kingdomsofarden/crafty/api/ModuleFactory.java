@@ -0,0 +1,154 @@
+package net.kingdomsofarden.crafty.api;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentMap;
+
+import net.kingdomsofarden.crafty.Crafty;
+
+import org.bukkit.inventory.ItemStack;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Resolved handles to the static deserialize and createNewModule methods of a registered {@link Module},
+ * looked up once when the {@link ModuleRegistrar} is sealed rather than on every instantiation. Factories of
+ * {@link ImmutableModule}s also hold the shared instances loaded so far, by serialized data.
+ *
+ * @author Andrew2060
+ */
+final class ModuleFactory {
+
+    private final ModuleKey key;
+    private final Class<? extends Module> moduleClazz;
+    private final Method deserialize;
+    private final Method createNewModule;
+    // Shared instances by serialized data, held until no item uses them - null if the module is not immutable
+    private final ConcurrentMap<Object, Module> interned;
+
+    private static final Object NO_DATA = new Object();
+
+    private ModuleFactory(ModuleKey key, Class<? extends Module> moduleClazz, Method deserialize, Method createNewModule) {
+        this.key = key;
+        this.moduleClazz = moduleClazz;
+        this.deserialize = deserialize;
+        this.createNewModule = createNewModule;
+        this.interned = ImmutableModule.class.isAssignableFrom(moduleClazz)
+                ? new MapMaker().weakValues().<Object, Module>makeMap() : null;
+    }
+
+    /**
+     * Resolves the factory methods of a module class
+     * @param key The key the module was registered with
+     * @param moduleClazz The class of the module
+     * @return The resolved factory
+     * @throws UnsupportedOperationException if the class does not implement the required static methods
+     */
+    static ModuleFactory resolve(ModuleKey key, Class<? extends Module> moduleClazz) {
+        Method deserialize = findStatic(moduleClazz, "deserialize",
+                "public static Module deserialize(Crafty plugin, String data, ItemStack item)",
+                Crafty.class, String.class, ItemStack.class);
+        Method createNewModule = findStatic(moduleClazz, "createNewModule",
+                "public static Module createNewModule(Crafty plugin, ItemStack item, Object... initArgs)",
+                Crafty.class, ItemStack.class, Object[].class);
+        return new ModuleFactory(key, moduleClazz, deserialize, createNewModule);
+    }
+
+    private static Method findStatic(Class<? extends Module> moduleClazz, String name, String signature, Class<?>... params) {
+        Method m;
+        try {
+            m = moduleClazz.getMethod(name, params);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Module " + moduleClazz.getName()
+                    + " does not implement the required method " + signature);
+        } catch (SecurityException e) {
+            throw new RuntimeException("An unknown error occurred when attempting to check for "
+                    + "the presence of " + name + " in " + moduleClazz.getName(), e);
+        }
+        if (!Modifier.isStatic(m.getModifiers()) || !Module.class.isAssignableFrom(m.getReturnType())) {
+            throw new UnsupportedOperationException("Module " + moduleClazz.getName()
+                    + " does not implement the required method " + signature);
+        }
+        return m;
+    }
+
+    ModuleKey getKey() {
+        return this.key;
+    }
+
+    Class<? extends Module> getModuleClass() {
+        return this.moduleClazz;
+    }
+
+    /**
+     * @param plugin
+     * @param data The serialized module data, may be null
+     * @param item
+     * @return The deserialized module, or null if it failed to load
+     */
+    <T extends Module> T deserialize(Crafty plugin, String data, ItemStack item) {
+        try {
+            return this.initialize(this.deserialize.invoke(null, plugin, data, item));
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Loads a module for an item, sharing the instance with other items that store the same data if the
+     * module is an {@link ImmutableModule}
+     * @param plugin
+     * @param data The serialized module data, may be null
+     * @param item
+     * @return The module, or null if it failed to load
+     */
+    <T extends Module> T load(Crafty plugin, String data, ItemStack item) {
+        if (this.interned == null) {
+            return this.deserialize(plugin, data, item);
+        }
+        Object key = data == null ? NO_DATA : data;
+        Module shared = this.interned.get(key);
+        if (shared == null) {
+            shared = this.deserialize(plugin, data, item);
+            if (shared == null) {
+                return null;
+            }
+            shared.setShared();
+            Module existing = this.interned.putIfAbsent(key, shared);
+            if (existing != null) {
+                shared = existing;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        T mod = (T) shared;
+        return mod;
+    }
+
+    /**
+     * @param plugin
+     * @param item
+     * @param initArgs
+     * @return The new module, or null if it failed to instantiate
+     */
+    <T extends Module> T create(Crafty plugin, ItemStack item, Object... initArgs) {
+        try {
+            return this.initialize(this.createNewModule.invoke(null, plugin, item, initArgs));
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private <T extends Module> T initialize(Object result) {
+        if (result == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T mod = (T) result;
+        mod.setIdentifier(this.key.getIdentifier());
+        mod.setName(this.key.getName());
+        return mod;
+    }
+}
@@ -0,0 +1,70 @@
+package net.kingdomsofarden.crafty.api;
+
+import java.util.UUID;
+
+/**
+ * A resolved handle to a registered {@link Module}, obtained through {@link ModuleRegistrar#getModuleKey(String)}
+ * or {@link ModuleRegistrar#getModuleKey(UUID)}. Holding on to a key avoids repeated name lookups and
+ * UUID conversions on hot read paths such as {@link ItemManager#peek(org.bukkit.inventory.ItemStack, ModuleKey)}.
+ * 
+ * @author Andrew2060
+ */
+public final class ModuleKey {
+    
+    private final UUID identifier;
+    private final String name;
+    private final String identifierString;
+    private int ordinal;
+    
+    ModuleKey(UUID identifier, String name) {
+        this.identifier = identifier;
+        this.name = name;
+        this.identifierString = identifier.toString();
+        this.ordinal = -1;
+    }
+    
+    /**
+     * @return The UUID the module was registered with
+     */
+    public UUID getIdentifier() {
+        return this.identifier;
+    }
+    
+    /**
+     * @return The name the module was registered with
+     */
+    public String getName() {
+        return this.name;
+    }
+    
+    String getIdentifierString() {
+        return this.identifierString;
+    }
+    
+    /**
+     * @return The dense index of the module, from 0 up to {@link ModuleRegistrar#getModuleCount()}, assigned when
+     * the registrar is sealed
+     */
+    public int getOrdinal() {
+        return this.ordinal;
+    }
+    
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+    
+    @Override
+    public int hashCode() {
+        return this.identifier.hashCode();
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ModuleKey && this.identifier.equals(((ModuleKey) obj).identifier);
+    }
+    
+    @Override
+    public String toString() {
+        return this.name + "(" + this.identifierString + ")";
+    }
+}
@@ -1,10 +1,18 @@
 package net.kingdomsofarden.crafty.api;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.kingdomsofarden.crafty.Crafty;
 import net.kingdomsofarden.crafty.internals.NBTUtil;
@@ -19,7 +27,7 @@ import org.bukkit.inventory.ItemStack;
  * if no migration is found.<br>  
  * <br>
  * Registration is done by calling the method {@link #registerModule(String, UUID, Class)} and should be done
- * during plugin load (prior to plugin enable)
+ * during plugin load (prior to plugin enable), after which Crafty seals the registrar with {@link #seal()}
  * 
  * @author Andrew2060
  * 
@@ -30,37 +38,64 @@ public final class ModuleRegistrar {
     private Map<UUID, Class<? extends Module>> idToClassMap;
     private Map<UUID, String> idToNameMap;
     private Map<String, UUID> nameToIdMap;
+    private Map<UUID, ModuleKey> idToKeyMap;
+    private Map<UUID, ModuleFactory> idToFactoryMap;
+    private Map<UUID, UUID[]> idToDependencyMap;
+    private ModuleFactory[] factories;
 
     private boolean registerLock;
     
     public ModuleRegistrar(Crafty plugin) {
         this.plugin = plugin;
         this.registerLock = false;
-        this.idToClassMap = new HashMap<UUID, Class<? extends Module>>();
-        this.idToNameMap = new HashMap<UUID, String>();
+        this.idToClassMap = new LinkedHashMap<UUID, Class<? extends Module>>();
+        this.idToNameMap = new LinkedHashMap<UUID, String>();
         this.nameToIdMap = new HashMap<String, UUID>();
+        this.idToKeyMap = new HashMap<UUID, ModuleKey>();
+        this.idToFactoryMap = new HashMap<UUID, ModuleFactory>();
+        this.idToDependencyMap = new HashMap<UUID, UUID[]>();
+        this.factories = new ModuleFactory[0];
     }
 
     /**
      * Registers a module with this registrar, allowing for retrieval/saving of this data to an item<br>
-     * Must be called on plugin load (onLoad()) and before enable (onEnable())
+     * Must be called on plugin load (onLoad()) and before enable (onEnable()). The module class is
+     * validated when the registrar is sealed - a class that does not implement the required static
+     * deserialize and createNewModule methods is logged and dropped at that point.
      * @param name The name of the module
      * @param id A {@link UUID} representing this module
      * @param moduleClazz The class of the Module to register
      * @return whether registration was successful
      */
     public boolean registerModule(String name, UUID id, Class<? extends Module> moduleClazz) {
+        return this.registerModule(name, id, moduleClazz, new UUID[0]);
+    }
+
+    /**
+     * Registers a module that depends on other modules. Wherever modules are processed together - 
+     * {@link Module#postLoad(CraftyItem)} on item load and serialization on save - a module's dependencies
+     * are processed before it, so state derived from them can be computed once in postLoad.
+     * Dependencies that are never registered are ignored.<br>
+     * Must be called on plugin load (onLoad()) and before enable (onEnable())
+     * @param name The name of the module
+     * @param id A {@link UUID} representing this module
+     * @param moduleClazz The class of the Module to register
+     * @param dependencies The UUIDs of the modules this module depends on
+     * @return whether registration was successful
+     */
+    public boolean registerModule(String name, UUID id, Class<? extends Module> moduleClazz, UUID... dependencies) {
         if (this.registerLock) {
             throw new IllegalStateException("Cannot register module after plugin load: " + moduleClazz.getName());
         }
         if (this.idToClassMap.containsKey(id)) {
-            if (this.idToClassMap.get(id).getClass().getName().equals(moduleClazz.getName())) {
+            if (this.idToClassMap.get(id).getName().equals(moduleClazz.getName())) {
                 UUID nameMapping = nameToIdMap.get(name);
                 if (nameMapping != null && nameMapping.equals(id)) {
                     return true; // Duplicate registration of the same class, fail silently
                 } else if (nameMapping == null) {
                     this.nameToIdMap.put(name, id); // Missing Name->ID mapping
                     this.idToNameMap.put(id, name);
+                    this.idToKeyMap.put(id, new ModuleKey(id, name));
                     return true; // ID->Class map exists and Name->ID Map now exists, return
                 }
             }
@@ -74,37 +109,153 @@ public final class ModuleRegistrar {
                 throw new UnsupportedOperationException("An attempt was made to register module "
                         + moduleClazz.getName() + " with name " + name
                         + " which duplicates a preexisting registration for "
-                        + this.idToClassMap.get(this.nameToIdMap.get(id)).getName());
+                        + this.idToClassMap.get(this.nameToIdMap.get(name)).getName());
             }
         }
-        try {
-            moduleClazz.getMethod("deserialize", Crafty.class, String.class, ItemStack.class);
-        } catch (NoSuchMethodException e) {
-            throw new UnsupportedOperationException("An attempt was made to register module " 
-                    + moduleClazz.getName() + " which does not implement the required method "
-                    + "public static Module deserialize(Crafty plugin, String data, ItemStack item) ");
-        } catch (Exception e) {
-            throw new RuntimeException("An unknown error occurred when attempting to check for "
-                    + "the presence of a deserialization method in "
-                    + moduleClazz.getName() , e);
-        }
-        try {
-            moduleClazz.getMethod("createNewModule", Crafty.class, ItemStack.class, Object[].class);
-        } catch (NoSuchMethodException e) {
-            throw new UnsupportedOperationException("An attempt was made to register module " 
-                    + moduleClazz.getName() + " which does not implement the required method "
-                    + "public static Module createNewModule(Crafty plugin, ItemStack item, Object... initArgs)");
-        } catch (Exception e) {
-            throw new RuntimeException("An unknown error occurred when attempting to check for "
-                    + "the presence of a new module instantiation method in "
-                    + moduleClazz.getName() , e);
-        }
         this.idToClassMap.put(id, moduleClazz);
         this.nameToIdMap.put(name, id);
         this.idToNameMap.put(id, name);
+        this.idToKeyMap.put(id, new ModuleKey(id, name));
+        this.idToDependencyMap.put(id, dependencies.clone());
+        return true;
+    }
+
+    /**
+     * Closes registration, validating every registered module and resolving its factory methods once.
+     * Modules that fail validation are logged and unregistered. Registered modules are assigned dense
+     * ordinals in dependency order, ties broken by registration order. Called by Crafty on enable - 
+     * do not call directly.
+     */
+    public void seal() {
+        if (this.registerLock) {
+            return;
+        }
+        List<ModuleFactory> resolved = new ArrayList<ModuleFactory>(this.idToClassMap.size());
+        Iterator<Map.Entry<UUID, Class<? extends Module>>> it = this.idToClassMap.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Class<? extends Module>> entry = it.next();
+            UUID id = entry.getKey();
+            try {
+                ModuleFactory factory = ModuleFactory.resolve(this.idToKeyMap.get(id), entry.getValue());
+                resolved.add(factory);
+                this.idToFactoryMap.put(id, factory);
+            } catch (RuntimeException e) {
+                this.plugin.getLogger().log(Level.SEVERE, "Unable to register module " + this.idToNameMap.get(id)
+                        + ": " + e.getMessage());
+                it.remove();
+                this.nameToIdMap.remove(this.idToNameMap.remove(id));
+                this.idToKeyMap.remove(id);
+                this.idToDependencyMap.remove(id);
+            }
+        }
+        this.factories = sortByDependencies(resolved, this.idToDependencyMap, this.plugin.getLogger());
+        for (int i = 0; i < this.factories.length; i++) {
+            this.factories[i].getKey().setOrdinal(i);
+        }
+        this.idToNameMap = Collections.unmodifiableMap(this.idToNameMap);
+        this.registerLock = true;
+    }
+
+    /**
+     * Orders modules so that every module follows its dependencies. Modules that are part of a
+     * dependency cycle are logged and placed after all others.
+     * @param modules Modules in registration order
+     * @param dependencies The dependencies of each module, keyed by the ids of all registered modules
+     * @param logger Logger to report dependency cycles to
+     * @return The ordered modules
+     */
+    static ModuleFactory[] sortByDependencies(List<ModuleFactory> modules, Map<UUID, UUID[]> dependencies,
+            Logger logger) {
+        ModuleFactory[] sorted = new ModuleFactory[modules.size()];
+        Set<UUID> placed = new HashSet<UUID>();
+        List<ModuleFactory> remaining = new LinkedList<ModuleFactory>(modules);
+        int count = 0;
+        boolean progress = true;
+        while (progress && !remaining.isEmpty()) {
+            progress = false;
+            Iterator<ModuleFactory> it = remaining.iterator();
+            while (it.hasNext()) {
+                ModuleFactory factory = it.next();
+                if (isSatisfied(factory.getKey().getIdentifier(), dependencies, placed)) {
+                    it.remove();
+                    sorted[count++] = factory;
+                    placed.add(factory.getKey().getIdentifier());
+                    progress = true;
+                    break; // Restart from the earliest registered module to keep registration order
+                }
+            }
+        }
+        for (ModuleFactory factory : remaining) {
+            logger.log(Level.SEVERE, "Module " + factory.getKey().getName()
+                    + " is part of a dependency cycle, its dependencies will not be processed before it");
+            sorted[count++] = factory;
+        }
+        return sorted;
+    }
+
+    private static boolean isSatisfied(UUID id, Map<UUID, UUID[]> dependencies, Set<UUID> placed) {
+        for (UUID dependency : dependencies.get(id)) {
+            if (!placed.contains(dependency) && dependencies.containsKey(dependency) && !dependency.equals(id)) {
+                return false;
+            }
+        }
         return true;
     }
 
+    /**
+     * Internal utility method, do not use
+     * @param modules
+     * @return The modules in dependency order, followed by any modules that are not registered
+     */
+    List<Module> inDependencyOrder(Map<UUID, Module> modules) {
+        Module[] byOrdinal = new Module[this.factories.length];
+        List<Module> ordered = new ArrayList<Module>(modules.size());
+        List<Module> unregistered = null;
+        for (Map.Entry<UUID, Module> entry : modules.entrySet()) {
+            ModuleFactory factory = this.idToFactoryMap.get(entry.getKey());
+            if (factory != null) {
+                byOrdinal[factory.getKey().getOrdinal()] = entry.getValue();
+            } else {
+                if (unregistered == null) {
+                    unregistered = new ArrayList<Module>();
+                }
+                unregistered.add(entry.getValue());
+            }
+        }
+        for (Module m : byOrdinal) {
+            if (m != null) {
+                ordered.add(m);
+            }
+        }
+        if (unregistered != null) {
+            ordered.addAll(unregistered);
+        }
+        return ordered;
+    }
+
+    /**
+     * @return Whether registration has been closed by {@link #seal()}
+     */
+    public boolean isSealed() {
+        return this.registerLock;
+    }
+
+    /**
+     * @return The number of registered modules, one greater than the highest ordinal of any {@link ModuleKey}
+     */
+    public int getModuleCount() {
+        return this.factories.length;
+    }
+
+    /**
+     * Internal utility method, do not use
+     * @param key
+     * @return The factory for the key
+     */
+    ModuleFactory getFactory(ModuleKey key) {
+        return this.factories[key.getOrdinal()];
+    }
+
     /**
      * @return A map of the UUID and name of all registered modules
      */
@@ -130,17 +281,18 @@ public final class ModuleRegistrar {
                     " being finished");
         }
         UUID id = this.nameToIdMap.get(name);
-        return getModule(this.idToClassMap.get(id), name, id, item);
+        return load(id, item);
     }
     
     /**
-     * Loads a module instance from the provided item 
+     * Loads a module instance from the provided item. Instances of {@link ImmutableModule}s may be shared
+     * with other items and must not be changed
      * @param id The UUID of the module to load
      * @param item The ItemStack to load the module's data from
      * @return The loaded module, or null if for some reason the module failed to load or does not exist
      */
     public <T extends Module> T getModule(UUID id, ItemStack item) {
-        return getModule(this.idToClassMap.get(id), this.idToNameMap.get(id), id, item);
+        return load(id, item);
     }
     
     /**
@@ -156,6 +308,33 @@ public final class ModuleRegistrar {
         return this.nameToIdMap.get(name);
     }
     
+    /**
+     * Gets a reusable key for a registered module, for use with {@link ItemManager#peek(ItemStack, ModuleKey)}
+     * @param name The name to look up
+     * @return The key of the module, or null if the module does not exist
+     */
+    public ModuleKey getModuleKey(String name) {
+        if (!this.registerLock) {
+            throw new IllegalStateException("An attempt was made to get a module key prior to registration" +
+                    " being finished");
+        }
+        UUID id = this.nameToIdMap.get(name);
+        return id == null ? null : this.idToKeyMap.get(id);
+    }
+    
+    /**
+     * Gets a reusable key for a registered module, for use with {@link ItemManager#peek(ItemStack, ModuleKey)}
+     * @param id The id to look up
+     * @return The key of the module, or null if the module does not exist
+     */
+    public ModuleKey getModuleKey(UUID id) {
+        if (!this.registerLock) {
+            throw new IllegalStateException("An attempt was made to get a module key prior to registration" +
+                    " being finished");
+        }
+        return this.idToKeyMap.get(id);
+    }
+    
     /**
      * Allows for faster lookup of the name of a registered module by id compared to getting the whole module
      * @param id The id to look up
@@ -185,7 +364,7 @@ public final class ModuleRegistrar {
                     " being finished");
         }
         UUID id = this.nameToIdMap.get(name);
-        return createModule(this.idToClassMap.get(id), name, id, item, initArgs);
+        return create(id, item, initArgs);
     }
     
     /**
@@ -197,7 +376,7 @@ public final class ModuleRegistrar {
      * @return The loaded module, or null if for some reason the module failed to load or does not exist
      */
     public <T extends Module> T createModule(UUID id, ItemStack item, Object...initArgs) {
-        return createModule(this.idToClassMap.get(id), idToNameMap.get(id), id, item, initArgs);
+        return create(id, item, initArgs);
     }
     
     /**
@@ -216,7 +395,7 @@ public final class ModuleRegistrar {
         if (id == null) {
             return null;
         }
-        return createFromData(this.idToClassMap.get(id), name, id, item, data);
+        return deserialize(id, item, data);
     }
     
     /**
@@ -235,72 +414,62 @@ public final class ModuleRegistrar {
         if (name == null) {
             return null;
         }
-        return createFromData(this.idToClassMap.get(id), name, id, item, data);
+        return deserialize(id, item, data);
     }
     
     // Private utility methods
     
-    private <T extends Module> T getModule(Class<? extends Module> clazz, String name, UUID id, ItemStack item) {
-        if (clazz == null || name == null || id == null || item == null) {
+    private <T extends Module> T load(UUID id, ItemStack item) {
+        ModuleFactory factory = id == null ? null : this.idToFactoryMap.get(id);
+        if (factory == null || item == null) {
             return null;
         }
-        try {
-            Method m = clazz.getMethod("deserialize", Crafty.class, String.class, ItemStack.class);
-            String data = NBTUtil.getData(id, item);
-            @SuppressWarnings("unchecked")
-            T mod = (T) m.invoke(null, this.plugin, data, item);
-            if (mod == null) {
-                return null;
-            }
-            mod.setIdentifier(id);
-            mod.setName(name);
-            return mod;
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            e.printStackTrace();
-            return null;
-        } 
+        return factory.load(this.plugin, NBTUtil.getData(id, item), item);
     }
     
-    private <T extends Module> T createFromData(Class<? extends Module> clazz, String name, UUID id, ItemStack item, String data) {
-        if (clazz == null || name == null || id == null || item == null) {
+    /**
+     * Loads a module of an item from data, sharing {@link ImmutableModule} instances
+     * @param id
+     * @param data
+     * @param item
+     * @return The module, or null if it failed to load or does not exist
+     */
+    <T extends Module> T loadFromData(UUID id, String data, ItemStack item) {
+        ModuleFactory factory = this.idToFactoryMap.get(id);
+        if (factory == null || item == null) {
             return null;
         }
-        try {
-            Method m = clazz.getMethod("deserialize", Crafty.class, String.class, ItemStack.class);
-            @SuppressWarnings("unchecked")
-            T mod = (T) m.invoke(null, this.plugin, data, item);
-            if (mod == null) {
-                return null;
-            }
-            mod.setIdentifier(id);
-            mod.setName(name);
-            return mod;
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            e.printStackTrace();
-            return null;
-        } 
+        return factory.load(this.plugin, data, item);
     }
     
-    private <T extends Module> T createModule(Class<? extends Module> clazz, String name, UUID id, ItemStack item, Object...initArgs) {
-        if (clazz == null || name == null || id == null || item == null) {
+    /**
+     * Creates an unshared copy of a module by deserializing its current data
+     * @param mod
+     * @param item The item the copy is for
+     * @return The copy, or null if it failed to load
+     */
+    <T extends Module> T copy(Module mod, ItemStack item) {
+        ModuleFactory factory = this.idToFactoryMap.get(mod.getIdentifier());
+        if (factory == null || item == null) {
             return null;
         }
-        try {
-            Method m = clazz.getMethod("createNewModule", Crafty.class, ItemStack.class, Object[].class);
-            @SuppressWarnings("unchecked")
-            T mod = (T) m.invoke(null, this.plugin, item, initArgs);
-            if (mod == null) {
-                return null;
-            }
-            mod.setIdentifier(id);
-            mod.setName(name);
-            return mod;
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            e.printStackTrace();
-            return null;
-        } 
+        return factory.deserialize(this.plugin, mod.serialize(), item);
     }
     
+    private <T extends Module> T deserialize(UUID id, ItemStack item, String data) {
+        ModuleFactory factory = id == null ? null : this.idToFactoryMap.get(id);
+        if (factory == null || item == null) {
+            return null;
+        }
+        return factory.deserialize(this.plugin, data, item);
+    }
     
+    private <T extends Module> T create(UUID id, ItemStack item, Object...initArgs) {
+        ModuleFactory factory = id == null ? null : this.idToFactoryMap.get(id);
+        if (factory == null || item == null) {
+            return null;
+        }
+        return factory.create(this.plugin, item, initArgs);
+    }
     
 }
@@ -0,0 +1,97 @@
+package net.kingdomsofarden.crafty.api;
+
+import net.kingdomsofarden.crafty.Crafty;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * A read-only view of a single {@link Module} on an item, as returned by
+ * {@link ItemManager#peek(ItemStack, ModuleKey)}. Views are reused: each thread has one instance
+ * that is overwritten by the next peek on that thread, so a view must not be retained or shared.<br>
+ * <br>
+ * Peeking never creates a {@link CraftyItem} and never adds anything to cache. If the item is already
+ * cached, the view reflects the live module rather than the last saved data. The view only holds on to
+ * the item while it may still be needed to {@link #load()} a module from saved data, and releases it
+ * along with the saved data once the module has been loaded.
+ * 
+ * @author Andrew2060
+ */
+public final class ModuleView {
+    
+    private ModuleKey key;
+    private ItemStack item;
+    private boolean present;
+    private String data;
+    private Module live;
+    
+    ModuleView() {}
+    
+    void reset(ModuleKey key) {
+        this.key = key;
+        this.item = null;
+        this.present = false;
+        this.data = null;
+        this.live = null;
+    }
+    
+    void setStored(String data, ItemStack item) {
+        this.present = true;
+        this.data = data;
+        this.item = item;
+    }
+    
+    void setLive(Module module) {
+        this.present = true;
+        this.live = module;
+    }
+    
+    /**
+     * @return The key of the module being viewed
+     */
+    public ModuleKey getKey() {
+        return this.key;
+    }
+    
+    /**
+     * @return True if the module is attached to the item
+     */
+    public boolean isPresent() {
+        return this.present;
+    }
+    
+    /**
+     * Gets the serialized data of the module, in the form produced by {@link Module#serialize()}
+     * @return The module's data, or null if the module is absent or stores no data
+     */
+    public String getData() {
+        if (this.live != null && this.data == null) {
+            this.data = this.live.serialize();
+        }
+        return this.data;
+    }
+    
+    /**
+     * Gets a full module instance. For items that are not cached, this deserializes a detached module
+     * on the first call, which is returned by later calls on the same view - modifications to it are not
+     * written back to the item.
+     * @return The module, or null if it is absent or fails to load
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Module> T load() {
+        if (!this.present) {
+            return null;
+        }
+        if (this.live != null) {
+            return (T) this.live;
+        }
+        Crafty plugin = Crafty.getInstance();
+        Module loaded = plugin.getModuleRegistrar().getFactory(this.key).deserialize(plugin, this.data, this.item);
+        if (loaded != null) {
+            // Keep only the result - the stack and its data are not needed anymore
+            this.live = loaded;
+            this.item = null;
+            this.data = null;
+        }
+        return (T) loaded;
+    }
+}
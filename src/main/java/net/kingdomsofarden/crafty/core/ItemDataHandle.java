@@ -0,0 +1,27 @@
+package net.kingdomsofarden.crafty.core;
+
+/**
+ * Platform independent access to the Crafty data stored on a single item. Data is a set of strings
+ * keyed by UUID, the UUID being given as its two halves so that implementations can compare keys
+ * without constructing {@link java.util.UUID} objects.<br>
+ * <br>
+ * The Bukkit implementation stores data in the item's NBT; {@link MemoryItemDataHandle} keeps it in
+ * memory for running the storage format and cache off-server.
+ */
+public interface ItemDataHandle {
+
+    /**
+     * @param most Most significant bits of the storage key
+     * @param least Least significant bits of the storage key
+     * @return The data stored under the key, or null if none
+     */
+    String getData(long most, long least);
+
+    /**
+     * @param most Most significant bits of the storage key
+     * @param least Least significant bits of the storage key
+     * @param data The data to store, may not be null
+     */
+    void setData(long most, long least, String data);
+
+}
@@ -0,0 +1,363 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open addressing (linear probing) index of cached items keyed directly by the two halves of their
+ * item tracker id. Keys and access times are held in primitive arrays, so an entry costs a few array
+ * slots rather than an entry object, a {@link java.util.UUID} and a key object. Each entry also belongs
+ * to an integer partition, and the index keeps a running size per partition. Each entry counts the
+ * number of times it has been touched, as a measure of how hot it is.<br>
+ * <br>
+ * Not thread safe - callers must synchronize access
+ *
+ * @param <V> The cached item type
+ */
+public class ItemIndex<V> {
+
+    private static final int MIN_CAPACITY = 64;
+
+    private long[] mostBits;
+    private long[] leastBits;
+    private long[] lastAccess;
+    private int[] hits;
+    private int[] partitions;
+    private Object[] items; // A null item marks an empty slot
+    private int mask;
+    private int size;
+    private int[] partitionSizes;
+
+    public ItemIndex() {
+        this.allocate(MIN_CAPACITY);
+        this.partitionSizes = new int[16];
+    }
+
+    private void allocate(int capacity) {
+        this.mostBits = new long[capacity];
+        this.leastBits = new long[capacity];
+        this.lastAccess = new long[capacity];
+        this.hits = new int[capacity];
+        this.partitions = new int[capacity];
+        this.items = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private static int hash(long most, long least) {
+        // Tracker ids are not guaranteed to be random (e.g. time ordered ids), so mix before masking
+        long h = (most ^ least) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param most
+     * @param least
+     * @return The slot occupied by the key, or -1 if not present
+     */
+    private int find(long most, long least) {
+        int slot = hash(most, least) & mask;
+        while (items[slot] != null) {
+            if (mostBits[slot] == most && leastBits[slot] == least) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param most
+     * @param least
+     * @return The cached item for the tracker id, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long most, long least) {
+        int slot = find(most, least);
+        return slot == -1 ? null : (V) items[slot];
+    }
+
+    /**
+     * Updates the last access time of an entry and counts the access
+     * @param most
+     * @param least
+     * @param time The access time in milliseconds
+     * @return False if the entry is not present
+     */
+    public boolean touch(long most, long least, long time) {
+        int slot = find(most, least);
+        if (slot == -1) {
+            return false;
+        }
+        lastAccess[slot] = time;
+        if (hits[slot] != Integer.MAX_VALUE) {
+            hits[slot]++;
+        }
+        return true;
+    }
+
+    /**
+     * @param most
+     * @param least
+     * @return The number of accesses counted for the entry, or 0 if not present
+     */
+    public int hitsOf(long most, long least) {
+        int slot = find(most, least);
+        return slot == -1 ? 0 : hits[slot];
+    }
+
+    /**
+     * @param partition
+     * @return The number of entries in the partition
+     */
+    public int partitionSize(int partition) {
+        return partition < partitionSizes.length ? partitionSizes[partition] : 0;
+    }
+
+    /**
+     * @param most
+     * @param least
+     * @return The partition of the entry, or -1 if not present
+     */
+    public int partitionOf(long most, long least) {
+        int slot = find(most, least);
+        return slot == -1 ? -1 : partitions[slot];
+    }
+
+    /**
+     * Moves an entry to a different partition
+     * @param most
+     * @param least
+     * @param partition
+     * @return False if the entry is not present
+     */
+    public boolean setPartition(long most, long least, int partition) {
+        int slot = find(most, least);
+        if (slot == -1) {
+            return false;
+        }
+        partitionSizes[partitions[slot]]--;
+        partitions[slot] = partition;
+        countPartition(partition);
+        return true;
+    }
+
+    private void countPartition(int partition) {
+        if (partition >= partitionSizes.length) {
+            partitionSizes = Arrays.copyOf(partitionSizes, Math.max(partition + 1, partitionSizes.length << 1));
+        }
+        partitionSizes[partition]++;
+    }
+
+    /**
+     * Inserts or replaces an entry
+     * @param most
+     * @param least
+     * @param item
+     * @param time The access time in milliseconds
+     * @param partition The partition of the entry
+     * @return The previous item stored under the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long most, long least, V item, long time, int partition) {
+        if (item == null) {
+            throw new IllegalArgumentException("Cannot index a null item");
+        }
+        if ((size + 1) * 4 > items.length * 3) {
+            resize(items.length << 1);
+        }
+        int slot = hash(most, least) & mask;
+        while (items[slot] != null) {
+            if (mostBits[slot] == most && leastBits[slot] == least) {
+                V previous = (V) items[slot];
+                items[slot] = item;
+                lastAccess[slot] = time;
+                hits[slot] = 1;
+                partitionSizes[partitions[slot]]--;
+                partitions[slot] = partition;
+                countPartition(partition);
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        mostBits[slot] = most;
+        leastBits[slot] = least;
+        lastAccess[slot] = time;
+        hits[slot] = 1;
+        partitions[slot] = partition;
+        items[slot] = item;
+        countPartition(partition);
+        size++;
+        return null;
+    }
+
+    /**
+     * @param most
+     * @param least
+     * @return The removed item, or null if not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long most, long least) {
+        int slot = find(most, least);
+        if (slot == -1) {
+            return null;
+        }
+        V removed = (V) items[slot];
+        delete(slot);
+        return removed;
+    }
+
+    /**
+     * Removes all entries last accessed before the cutoff
+     * @param cutoff Access time in milliseconds before which entries are considered expired
+     * @param removed List to which removed items are added
+     */
+    @SuppressWarnings("unchecked")
+    public void expire(long cutoff, List<V> removed) {
+        int slot = 0;
+        while (slot < items.length) {
+            if (items[slot] != null && lastAccess[slot] < cutoff) {
+                removed.add((V) items[slot]);
+                delete(slot);
+                // Backward shift may have moved another entry into this slot, check it again
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * Removes all entries belonging to a partition
+     * @param partition
+     * @param removed List to which removed items are added
+     */
+    @SuppressWarnings("unchecked")
+    public void removePartition(int partition, List<V> removed) {
+        int slot = 0;
+        while (slot < items.length && partitionSize(partition) > 0) {
+            if (items[slot] != null && partitions[slot] == partition) {
+                removed.add((V) items[slot]);
+                delete(slot);
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * Collects all entries belonging to a partition without removing them
+     * @param partition
+     * @param values List to which cached items are added
+     */
+    @SuppressWarnings("unchecked")
+    public void values(int partition, List<V> values) {
+        int remaining = partitionSize(partition);
+        for (int slot = 0; slot < items.length && remaining > 0; slot++) {
+            if (items[slot] != null && partitions[slot] == partition) {
+                values.add((V) items[slot]);
+                remaining--;
+            }
+        }
+    }
+
+    /**
+     * Collects all entries without removing them
+     * @param values List to which cached items are added
+     */
+    @SuppressWarnings("unchecked")
+    public void values(List<V> values) {
+        for (Object item : items) {
+            if (item != null) {
+                values.add((V) item);
+            }
+        }
+    }
+
+    /**
+     * Collects all entries without removing them, along with their access counts
+     * @param values List to which cached items are added
+     * @return The access count of each collected item, in the same order
+     */
+    @SuppressWarnings("unchecked")
+    public int[] valuesWithHits(List<V> values) {
+        int[] counts = new int[size];
+        int i = 0;
+        for (int slot = 0; slot < items.length; slot++) {
+            if (items[slot] != null) {
+                values.add((V) items[slot]);
+                counts[i++] = hits[slot];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Removes all entries
+     * @param removed List to which removed items are added
+     */
+    @SuppressWarnings("unchecked")
+    public void clear(List<V> removed) {
+        for (Object item : items) {
+            if (item != null) {
+                removed.add((V) item);
+            }
+        }
+        Arrays.fill(items, null);
+        Arrays.fill(partitionSizes, 0);
+        size = 0;
+    }
+
+    /**
+     * Deletes the entry at a slot, shifting back any entries in the same probe run so that
+     * lookups never need tombstones
+     * @param slot
+     */
+    private void delete(int slot) {
+        partitionSizes[partitions[slot]]--;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (items[next] != null) {
+            int home = hash(mostBits[next], leastBits[next]) & mask;
+            // Move the entry if its home slot does not lie cyclically within (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                mostBits[gap] = mostBits[next];
+                leastBits[gap] = leastBits[next];
+                lastAccess[gap] = lastAccess[next];
+                hits[gap] = hits[next];
+                partitions[gap] = partitions[next];
+                items[gap] = items[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        items[gap] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldMost = mostBits;
+        long[] oldLeast = leastBits;
+        long[] oldAccess = lastAccess;
+        int[] oldHits = hits;
+        int[] oldPartitions = partitions;
+        Object[] oldItems = items;
+        allocate(capacity);
+        for (int i = 0; i < oldItems.length; i++) {
+            if (oldItems[i] != null) {
+                int slot = hash(oldMost[i], oldLeast[i]) & mask;
+                while (items[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                mostBits[slot] = oldMost[i];
+                leastBits[slot] = oldLeast[i];
+                lastAccess[slot] = oldAccess[i];
+                hits[slot] = oldHits[i];
+                partitions[slot] = oldPartitions[i];
+                items[slot] = oldItems[i];
+            }
+        }
+    }
+}
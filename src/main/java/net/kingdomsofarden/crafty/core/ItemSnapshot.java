@@ -0,0 +1,234 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable copy of the Crafty data of one item - its tracker id, the schema stamp it was saved under
+ * and the serialized data of each of its modules - in a form that can be sent between servers
+ */
+public final class ItemSnapshot {
+
+    /**
+     * Size of the message header written by {@link #encode(List)}, in bytes
+     */
+    public static final int HEADER_SIZE = 5;
+
+    private static final int WIRE_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long trackerMost;
+    private final long trackerLeast;
+    private final long schemaStamp;
+    private final Map<UUID, String> moduleData;
+    private final long fingerprint;
+
+    /**
+     * @param trackerMost
+     * @param trackerLeast
+     * @param schemaStamp
+     * @param moduleData Serialized data of each module, in stored order - copied
+     */
+    public ItemSnapshot(long trackerMost, long trackerLeast, long schemaStamp, Map<UUID, String> moduleData) {
+        this.trackerMost = trackerMost;
+        this.trackerLeast = trackerLeast;
+        this.schemaStamp = schemaStamp;
+        this.moduleData = Collections.unmodifiableMap(new LinkedHashMap<UUID, String>(moduleData));
+        this.fingerprint = ItemStorageFormat.fingerprint(this.moduleData);
+    }
+
+    private ItemSnapshot(long trackerMost, long trackerLeast, long schemaStamp, LinkedHashMap<UUID, String> moduleData,
+            long fingerprint) {
+        this.trackerMost = trackerMost;
+        this.trackerLeast = trackerLeast;
+        this.schemaStamp = schemaStamp;
+        this.moduleData = Collections.unmodifiableMap(moduleData);
+        this.fingerprint = fingerprint;
+    }
+
+    public long getTrackerMostBits() {
+        return this.trackerMost;
+    }
+
+    public long getTrackerLeastBits() {
+        return this.trackerLeast;
+    }
+
+    public long getSchemaStamp() {
+        return this.schemaStamp;
+    }
+
+    /**
+     * @return Serialized data of each module, in stored order
+     */
+    public Map<UUID, String> getModuleData() {
+        return this.moduleData;
+    }
+
+    /**
+     * @return The fingerprint of the module data, as written to items by {@link ItemStorageFormat#setFingerprint}
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * Checks whether this snapshot still describes an item, i.e. the item has not been re-saved under another
+     * configuration or with different module data since the snapshot was taken
+     * @param handle
+     * @return True if the item's stamp and fingerprint match this snapshot
+     */
+    public boolean matches(ItemDataHandle handle) {
+        return ItemStorageFormat.getSchemaStamp(handle) == this.schemaStamp
+                && ItemStorageFormat.getFingerprint(handle) == this.fingerprint;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeLong(this.trackerMost);
+        out.writeLong(this.trackerLeast);
+        out.writeLong(this.schemaStamp);
+        out.writeInt(this.moduleData.size());
+        for (Map.Entry<UUID, String> entry : this.moduleData.entrySet()) {
+            out.writeLong(entry.getKey().getMostSignificantBits());
+            out.writeLong(entry.getKey().getLeastSignificantBits());
+            byte[] data = entry.getValue().getBytes(UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static ItemSnapshot read(DataInputStream in) throws IOException {
+        long trackerMost = in.readLong();
+        long trackerLeast = in.readLong();
+        long schemaStamp = in.readLong();
+        int modules = in.readInt();
+        Map<UUID, String> moduleData = new LinkedHashMap<UUID, String>();
+        for (int i = 0; i < modules; i++) {
+            UUID id = new UUID(in.readLong(), in.readLong());
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Truncated item snapshot");
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            moduleData.put(id, new String(data, UTF_8));
+        }
+        return new ItemSnapshot(trackerMost, trackerLeast, schemaStamp, moduleData);
+    }
+
+    /**
+     * @return The encoded size of this snapshot in bytes
+     */
+    public int getEncodedSize() {
+        int size = 8 * 3 + 4;
+        for (String data : this.moduleData.values()) {
+            size += 8 * 2 + 4 + data.getBytes(UTF_8).length;
+        }
+        return size;
+    }
+
+    /**
+     * @return This snapshot encoded on its own, without a message header
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.getEncodedSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            this.write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by in-memory streams
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes A snapshot encoded by {@link #toBytes()}
+     * @return The decoded snapshot
+     * @throws IOException if the snapshot is truncated
+     */
+    public static ItemSnapshot fromBytes(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Decodes a snapshot in place, without copying it out of the buffer or recomputing its fingerprint. For
+     * snapshots stored alongside their fingerprint by a trusted writer, such as the warm start file.
+     * @param buffer A heap buffer holding a snapshot encoded by {@link #toBytes()} between its position and limit
+     * @param fingerprint The fingerprint of the snapshot, as given by {@link #getFingerprint()} when it was encoded
+     * @return The decoded snapshot
+     * @throws IOException if the snapshot is truncated
+     */
+    public static ItemSnapshot read(ByteBuffer buffer, long fingerprint) throws IOException {
+        try {
+            long trackerMost = buffer.getLong();
+            long trackerLeast = buffer.getLong();
+            long schemaStamp = buffer.getLong();
+            int modules = buffer.getInt();
+            LinkedHashMap<UUID, String> moduleData = new LinkedHashMap<UUID, String>();
+            for (int i = 0; i < modules; i++) {
+                UUID id = new UUID(buffer.getLong(), buffer.getLong());
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Truncated item snapshot");
+                }
+                moduleData.put(id, new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8));
+                buffer.position(buffer.position() + length);
+            }
+            return new ItemSnapshot(trackerMost, trackerLeast, schemaStamp, moduleData, fingerprint);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated item snapshot", e);
+        }
+    }
+
+    /**
+     * @param snapshots
+     * @return The snapshots encoded as a single message
+     */
+    public static byte[] encode(List<ItemSnapshot> snapshots) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(WIRE_VERSION);
+            out.writeInt(snapshots.size());
+            for (ItemSnapshot snapshot : snapshots) {
+                snapshot.write(out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by in-memory streams
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param message A message produced by {@link #encode(List)}
+     * @return The decoded snapshots
+     * @throws IOException if the message is truncated or was encoded by an incompatible version
+     */
+    public static List<ItemSnapshot> decode(byte[] message) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        int version = in.readUnsignedByte();
+        if (version != WIRE_VERSION) {
+            throw new IOException("Unsupported item snapshot version " + version);
+        }
+        int count = in.readInt();
+        List<ItemSnapshot> snapshots = new ArrayList<ItemSnapshot>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            snapshots.add(read(in));
+        }
+        return snapshots;
+    }
+}
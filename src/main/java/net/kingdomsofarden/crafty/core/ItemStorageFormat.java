@@ -0,0 +1,290 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The layout of Crafty data on an item, independent of how an {@link ItemDataHandle} stores it:
+ * <ul>
+ *   <li>The item tracker id, stored as a UUID string under {@link #ITEM_TRACKER}</li>
+ *   <li>The colon delimited list of module ids, stored under {@link #MODULE_STORAGE_KEY}</li>
+ *   <li>Each module's serialized data, stored under the module's id</li>
+ *   <li>The schema stamp of the configuration the item was last saved with, stored as hex under
+ *   {@link #SCHEMA_KEY}</li>
+ *   <li>A fingerprint of the module list and module data, stored as hex under {@link #FINGERPRINT_KEY}</li>
+ * </ul>
+ */
+public final class ItemStorageFormat {
+
+    public static final UUID ITEM_TRACKER = UUID.fromString("198d8160-c487-11e3-9c1a-0800200c9a66");
+    public static final UUID MODULE_STORAGE_KEY = UUID.fromString("65bd4610-a0d8-11e3-a5e2-0800200c9a66");
+    public static final UUID SCHEMA_KEY = UUID.fromString("0f3c2a90-5b7e-11e4-8ed6-0800200c9a66");
+    public static final UUID FINGERPRINT_KEY = UUID.fromString("7a41e3c0-5c1f-11e4-8ed6-0800200c9a66");
+
+    /**
+     * Version of this layout, folded into every schema stamp so that a layout change invalidates all stamps
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * UUID version of tracker ids derived from item content, see {@link #contentId(long, long)}
+     */
+    public static final int CONTENT_ID_VERSION = 8;
+
+    public static final long ITEM_TRACKER_MOST = ITEM_TRACKER.getMostSignificantBits();
+    public static final long ITEM_TRACKER_LEAST = ITEM_TRACKER.getLeastSignificantBits();
+    public static final long MODULE_STORAGE_MOST = MODULE_STORAGE_KEY.getMostSignificantBits();
+    public static final long MODULE_STORAGE_LEAST = MODULE_STORAGE_KEY.getLeastSignificantBits();
+    public static final long SCHEMA_MOST = SCHEMA_KEY.getMostSignificantBits();
+    public static final long SCHEMA_LEAST = SCHEMA_KEY.getLeastSignificantBits();
+    public static final long FINGERPRINT_MOST = FINGERPRINT_KEY.getMostSignificantBits();
+    public static final long FINGERPRINT_LEAST = FINGERPRINT_KEY.getLeastSignificantBits();
+
+    private static final String MODULE_DELIMITER = ":";
+
+    private ItemStorageFormat() {}
+
+    /**
+     * @param handle
+     * @return The raw tracker id string of the item, or null if it is not tracked
+     */
+    public static String getTracker(ItemDataHandle handle) {
+        return handle.getData(ITEM_TRACKER_MOST, ITEM_TRACKER_LEAST);
+    }
+
+    public static void setTracker(ItemDataHandle handle, UUID tracker) {
+        handle.setData(ITEM_TRACKER_MOST, ITEM_TRACKER_LEAST, tracker.toString());
+    }
+
+    /**
+     * @param handle
+     * @return The colon delimited module list of the item, or null if none is stored
+     */
+    public static String getModuleList(ItemDataHandle handle) {
+        return handle.getData(MODULE_STORAGE_MOST, MODULE_STORAGE_LEAST);
+    }
+
+    public static void setModuleList(ItemDataHandle handle, String modules) {
+        handle.setData(MODULE_STORAGE_MOST, MODULE_STORAGE_LEAST, modules);
+    }
+
+    /**
+     * @param handle
+     * @param id
+     * @return The serialized data of a module, or null if none is stored
+     */
+    public static String getModuleData(ItemDataHandle handle, UUID id) {
+        return handle.getData(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public static void setModuleData(ItemDataHandle handle, UUID id, String data) {
+        handle.setData(id.getMostSignificantBits(), id.getLeastSignificantBits(), data);
+    }
+
+    /**
+     * @param handle
+     * @return The schema stamp the item was last saved with, or 0 if it has none
+     */
+    public static long getSchemaStamp(ItemDataHandle handle) {
+        return parseHexLong(handle.getData(SCHEMA_MOST, SCHEMA_LEAST));
+    }
+
+    public static void setSchemaStamp(ItemDataHandle handle, long stamp) {
+        handle.setData(SCHEMA_MOST, SCHEMA_LEAST, Long.toHexString(stamp));
+    }
+
+    /**
+     * @param handle
+     * @return The fingerprint of the module data the item was last saved with, or 0 if it has none
+     */
+    public static long getFingerprint(ItemDataHandle handle) {
+        return parseHexLong(handle.getData(FINGERPRINT_MOST, FINGERPRINT_LEAST));
+    }
+
+    public static void setFingerprint(ItemDataHandle handle, long fingerprint) {
+        handle.setData(FINGERPRINT_MOST, FINGERPRINT_LEAST, Long.toHexString(fingerprint));
+    }
+
+    /**
+     * Computes the fingerprint of a set of modules. The fingerprint does not depend on the order of the
+     * modules, and is never 0.
+     * @param moduleData The serialized data of each module, null where a module stores no data
+     * @return The fingerprint
+     */
+    public static long fingerprint(Map<UUID, String> moduleData) {
+        long fingerprint = moduleData.size();
+        for (Map.Entry<UUID, String> entry : moduleData.entrySet()) {
+            fingerprint += mix(mix(0, entry.getKey()), hash(entry.getValue()));
+        }
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * Derives the tracker id shared by all items of one type that store the same module data. Content ids are
+     * marked with version {@value #CONTENT_ID_VERSION}, which random (version 4) tracker ids never have.
+     * @param itemType A hash of the item type, e.g. its material and durability
+     * @param fingerprint The fingerprint of the module data, see {@link #fingerprint(Map)}
+     * @return The content id
+     */
+    public static UUID contentId(long itemType, long fingerprint) {
+        long most = mix(itemType, fingerprint);
+        long least = mix(most, fingerprint);
+        most = (most & ~0xF000L) | ((long) CONTENT_ID_VERSION << 12);
+        least = (least & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(most, least);
+    }
+
+    /**
+     * @param trackerMost Most significant bits of a tracker id
+     * @return Whether the tracker id was derived from item content by {@link #contentId(long, long)}
+     */
+    public static boolean isContentId(long trackerMost) {
+        return ((trackerMost >>> 12) & 0xF) == CONTENT_ID_VERSION;
+    }
+
+    /**
+     * @param s
+     * @return The 64 bit FNV-1a hash of the characters of the string, or 0 for null
+     */
+    private static long hash(String s) {
+        if (s == null) {
+            return 0;
+        }
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        return h;
+    }
+
+    /**
+     * Folds a value into a running 64 bit hash, for use in building schema stamps
+     * @param hash
+     * @param value
+     * @return The combined hash
+     */
+    public static long mix(long hash, long value) {
+        long h = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * @param hash
+     * @param id
+     * @return The hash with both halves of the id folded in
+     */
+    public static long mix(long hash, UUID id) {
+        return mix(mix(hash, id.getMostSignificantBits()), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Parses a colon delimited module list, skipping and reporting malformed entries
+     * @param modules
+     * @param malformed List to which unparseable entries are added, may be null
+     * @return The module ids in stored order
+     */
+    public static List<UUID> decodeModuleList(String modules, List<String> malformed) {
+        List<UUID> ids = new ArrayList<UUID>();
+        if (modules == null || modules.isEmpty()) {
+            return ids;
+        }
+        for (String idString : modules.split(MODULE_DELIMITER)) {
+            try {
+                ids.add(UUID.fromString(idString));
+            } catch (IllegalArgumentException e) {
+                if (malformed != null) {
+                    malformed.add(idString);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @param ids
+     * @return The colon delimited representation of the ids
+     */
+    public static String encodeModuleList(Iterable<UUID> ids) {
+        StringBuilder builder = new StringBuilder();
+        for (UUID id : ids) {
+            if (builder.length() > 0) {
+                builder.append(MODULE_DELIMITER);
+            }
+            builder.append(id.toString());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param s
+     * @return The most significant bits of the UUID represented by the string
+     */
+    public static long parseMostBits(String s) {
+        return isCanonicalUuid(s) ? parseHex(s, 0, 18) : UUID.fromString(s).getMostSignificantBits();
+    }
+
+    /**
+     * @param s
+     * @return The least significant bits of the UUID represented by the string
+     */
+    public static long parseLeastBits(String s) {
+        return isCanonicalUuid(s) ? parseHex(s, 19, 36) : UUID.fromString(s).getLeastSignificantBits();
+    }
+
+    /**
+     * @param s
+     * @return Whether the string is in the 8-4-4-4-12 form produced by {@link UUID#toString()}
+     */
+    private static boolean isCanonicalUuid(String s) {
+        if (s.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param s
+     * @return The value of a string written by {@link Long#toHexString(long)}, or 0 if it is null or malformed
+     */
+    private static long parseHexLong(String s) {
+        if (s == null || s.isEmpty() || s.length() > 16) {
+            return 0;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return 0;
+            }
+        }
+        return parseHex(s, 0, s.length());
+    }
+
+    /**
+     * Parses hex digits in the given range into a long, skipping dashes
+     * @param s A canonical UUID string or other validated hex string
+     * @param from Inclusive start index
+     * @param to Exclusive end index
+     * @return The parsed bits
+     */
+    private static long parseHex(String s, int from, int to) {
+        long bits = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c != '-') {
+                bits = (bits << 4) | Character.digit(c, 16);
+            }
+        }
+        return bits;
+    }
+}
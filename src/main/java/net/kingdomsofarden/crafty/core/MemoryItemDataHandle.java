@@ -0,0 +1,37 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An {@link ItemDataHandle} backed by a plain map, for load tests and benchmarks run without a server
+ */
+public class MemoryItemDataHandle implements ItemDataHandle {
+
+    private final Map<UUID, String> data;
+
+    public MemoryItemDataHandle() {
+        this.data = new LinkedHashMap<UUID, String>();
+    }
+
+    @Override
+    public String getData(long most, long least) {
+        return this.data.get(new UUID(most, least));
+    }
+
+    @Override
+    public void setData(long most, long least, String data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Stored data is null for key " + new UUID(most, least));
+        }
+        this.data.put(new UUID(most, least), data);
+    }
+
+    /**
+     * @return A live view of all stored data
+     */
+    public Map<UUID, String> getContents() {
+        return this.data;
+    }
+}
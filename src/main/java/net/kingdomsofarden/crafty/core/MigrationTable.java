@@ -0,0 +1,81 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable table of module id migrations, as configured under modules.migration
+ */
+public final class MigrationTable {
+
+    private final Map<UUID, UUID> migrations;
+    private final Map<UUID, List<UUID>> sources;
+
+    /**
+     * @param migrations Mapping of old module ids to the ids replacing them - copied
+     */
+    public MigrationTable(Map<UUID, UUID> migrations) {
+        this.migrations = new HashMap<UUID, UUID>(migrations);
+        this.sources = new HashMap<UUID, List<UUID>>();
+        for (UUID source : this.migrations.keySet()) {
+            UUID target = this.resolve(source);
+            List<UUID> targetSources = this.sources.get(target);
+            if (targetSources == null) {
+                targetSources = new ArrayList<UUID>();
+                this.sources.put(target, targetSources);
+            }
+            targetSources.add(source);
+        }
+    }
+
+    /**
+     * @param id
+     * @return The id directly replacing the given id, or null if there is none
+     */
+    public UUID get(UUID id) {
+        return this.migrations.get(id);
+    }
+
+    /**
+     * Follows a chain of migrations to its end
+     * @param id
+     * @return The module the id is ultimately migrated to, or the id itself if there is no migration
+     */
+    public UUID resolve(UUID id) {
+        UUID migratedId = this.migrations.get(id);
+        int hops = 0;
+        while (migratedId != null && hops++ < this.migrations.size()) {
+            id = migratedId;
+            migratedId = this.migrations.get(id);
+        }
+        return id;
+    }
+
+    /**
+     * @param target
+     * @return All module ids that are (possibly transitively) migrated to the target
+     */
+    public List<UUID> getSources(UUID target) {
+        List<UUID> targetSources = this.sources.get(target);
+        return targetSources == null ? Collections.<UUID>emptyList() : Collections.unmodifiableList(targetSources);
+    }
+
+    /**
+     * @return A hash of all migrations, independent of their order
+     */
+    public long fingerprint() {
+        long fingerprint = 0;
+        for (Map.Entry<UUID, UUID> entry : this.migrations.entrySet()) {
+            fingerprint += ItemStorageFormat.mix(ItemStorageFormat.mix(0, entry.getKey()), entry.getValue());
+        }
+        return fingerprint;
+    }
+
+    public boolean isEmpty() {
+        return this.migrations.isEmpty();
+    }
+}
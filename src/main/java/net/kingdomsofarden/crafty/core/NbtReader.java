@@ -0,0 +1,556 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A streaming pull parser for the binary NBT format, independent of the server implementation. Elements are
+ * visited one at a time with {@link #next()} - the value of the current element can then be read, entered if
+ * it is a compound or list, or skipped. Skipped values and values left unread when moving to the next element
+ * are passed over without being decoded, so that a path such as tag.AttributeModifiers can be found with
+ * {@link #seek(String)} without building the rest of the tree.<br>
+ * <br>
+ * Compressed files such as player data must be wrapped in a {@link java.util.zip.GZIPInputStream} by the caller.
+ * Not thread safe.
+ */
+public final class NbtReader {
+
+    public static final byte TAG_END = 0;
+    public static final byte TAG_BYTE = 1;
+    public static final byte TAG_SHORT = 2;
+    public static final byte TAG_INT = 3;
+    public static final byte TAG_LONG = 4;
+    public static final byte TAG_FLOAT = 5;
+    public static final byte TAG_DOUBLE = 6;
+    public static final byte TAG_BYTE_ARRAY = 7;
+    public static final byte TAG_STRING = 8;
+    public static final byte TAG_LIST = 9;
+    public static final byte TAG_COMPOUND = 10;
+    public static final byte TAG_INT_ARRAY = 11;
+
+    /**
+     * Maximum nesting depth accepted, as enforced by the server when reading NBT
+     */
+    public static final int MAX_DEPTH = 512;
+
+    private final DataInput in;
+
+    // Open containers - the element type and remaining length of lists, TAG_END for compounds
+    private final byte[] listTypes = new byte[MAX_DEPTH];
+    private final int[] remaining = new int[MAX_DEPTH];
+    private int depth;
+    private boolean rootRead;
+
+    private byte type = TAG_END;
+    private boolean pending;
+    private byte[] name = new byte[32];
+    private int nameLength = -1;
+
+    /**
+     * @param in The input, positioned at the root tag
+     */
+    public NbtReader(DataInput in) {
+        this.in = in;
+    }
+
+    /**
+     * @param buffer The input, positioned at the root tag. The buffer's position and byte order are not changed.
+     */
+    public NbtReader(ByteBuffer buffer) {
+        this(new ByteBufferInput(buffer.duplicate().order(ByteOrder.BIG_ENDIAN)));
+    }
+
+    /**
+     * Advances to the next element of the current compound or list, skipping the value of the current
+     * element if it was not read or entered
+     * @return The type of the element, or {@link #TAG_END} if the current container has ended - the reader
+     * is then positioned in the enclosing container. At the root, TAG_END marks the end of the document.
+     * @throws IOException if the input ends early or is malformed
+     */
+    public byte next() throws IOException {
+        if (this.pending) {
+            this.skip();
+        }
+        this.nameLength = -1;
+        if (this.depth == 0) {
+            if (this.rootRead) {
+                return this.type = TAG_END;
+            }
+            this.rootRead = true;
+            this.type = this.in.readByte();
+            if (this.type != TAG_END) {
+                this.readName();
+                this.pending = true;
+            }
+            return this.type;
+        }
+        int top = this.depth - 1;
+        if (this.listTypes[top] == TAG_END) {
+            this.type = this.in.readByte();
+            if (this.type == TAG_END) {
+                this.depth--;
+                return TAG_END;
+            }
+            checkType(this.type);
+            this.readName();
+        } else {
+            if (this.remaining[top] == 0) {
+                this.depth--;
+                return this.type = TAG_END;
+            }
+            this.remaining[top]--;
+            this.type = this.listTypes[top];
+        }
+        this.pending = true;
+        return this.type;
+    }
+
+    /**
+     * @return The type of the current element, or {@link #TAG_END} if there is none
+     */
+    public byte getType() {
+        return this.type;
+    }
+
+    /**
+     * @return The nesting depth of the current element's container, 0 for the root
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * @return The name of the current element, or null if it is a list element
+     */
+    public String getName() {
+        return this.nameLength < 0 ? null : decode(this.name, this.nameLength);
+    }
+
+    /**
+     * Checks the name of the current element without decoding it
+     * @param encoded A name in modified UTF-8, as given by {@link #encode(String)}
+     * @return Whether the current element has the name
+     */
+    public boolean isNamed(byte[] encoded) {
+        if (this.nameLength != encoded.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (this.name[i] != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enters the current compound or list, so that {@link #next()} visits its elements
+     * @return For a list, its length; for a compound, -1
+     * @throws IOException
+     */
+    public int enter() throws IOException {
+        this.consume(this.type == TAG_LIST ? TAG_LIST : TAG_COMPOUND);
+        if (this.depth == MAX_DEPTH) {
+            throw new IOException("NBT nested deeper than " + MAX_DEPTH);
+        }
+        if (this.type == TAG_COMPOUND) {
+            this.listTypes[this.depth] = TAG_END;
+            this.remaining[this.depth++] = -1;
+            return -1;
+        }
+        byte elementType = this.in.readByte();
+        int length = this.in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative NBT list length " + length);
+        }
+        if (length > 0) {
+            checkType(elementType);
+        }
+        // Empty lists may be untyped, and TAG_END marks a compound on the stack
+        this.listTypes[this.depth] = elementType == TAG_END ? TAG_BYTE : elementType;
+        this.remaining[this.depth++] = length;
+        return length;
+    }
+
+    /**
+     * @return The element type of the current list, or {@link #TAG_END} if the current container is a compound
+     */
+    public byte getListType() {
+        return this.depth == 0 ? TAG_END : this.listTypes[this.depth - 1];
+    }
+
+    /**
+     * Skips the rest of the current container and moves to the enclosing one
+     * @throws IOException
+     */
+    public void exit() throws IOException {
+        int target = this.depth - 1;
+        if (target < 0) {
+            throw new IllegalStateException("Not inside a compound or list");
+        }
+        while (this.depth > target) {
+            this.next();
+        }
+    }
+
+    /**
+     * Moves to an element by a dot separated path of compound names, relative to the current compound.
+     * Elements not on the path are skipped without being decoded. At the start of a document the path
+     * is resolved inside the root compound.
+     * @param path E.g. tag.AttributeModifiers
+     * @return True if the reader is now positioned at the element, false if it does not exist - the
+     * containers searched have then been consumed
+     * @throws IOException
+     */
+    public boolean seek(String path) throws IOException {
+        if (!this.rootRead) {
+            if (this.next() != TAG_COMPOUND) {
+                return false;
+            }
+            this.enter();
+        } else if (this.pending && this.type == TAG_COMPOUND) {
+            this.enter();
+        }
+        int start = 0;
+        while (true) {
+            int end = path.indexOf('.', start);
+            byte[] segment = encode(end < 0 ? path.substring(start) : path.substring(start, end));
+            if (!this.find(segment)) {
+                return false;
+            }
+            if (end < 0) {
+                return true;
+            }
+            if (this.type != TAG_COMPOUND) {
+                this.exit();
+                return false;
+            }
+            this.enter();
+            start = end + 1;
+        }
+    }
+
+    private boolean find(byte[] segment) throws IOException {
+        if (this.depth == 0 || this.listTypes[this.depth - 1] != TAG_END) {
+            return false;
+        }
+        while (this.next() != TAG_END) {
+            if (this.isNamed(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public byte readByte() throws IOException {
+        this.consume(TAG_BYTE);
+        return this.in.readByte();
+    }
+
+    public short readShort() throws IOException {
+        this.consume(TAG_SHORT);
+        return this.in.readShort();
+    }
+
+    public int readInt() throws IOException {
+        this.consume(TAG_INT);
+        return this.in.readInt();
+    }
+
+    public long readLong() throws IOException {
+        this.consume(TAG_LONG);
+        return this.in.readLong();
+    }
+
+    public float readFloat() throws IOException {
+        this.consume(TAG_FLOAT);
+        return this.in.readFloat();
+    }
+
+    public double readDouble() throws IOException {
+        this.consume(TAG_DOUBLE);
+        return this.in.readDouble();
+    }
+
+    public String readString() throws IOException {
+        this.consume(TAG_STRING);
+        return DataInputStream.readUTF(this.in);
+    }
+
+    public byte[] readByteArray() throws IOException {
+        this.consume(TAG_BYTE_ARRAY);
+        byte[] value = new byte[this.readLength()];
+        this.in.readFully(value);
+        return value;
+    }
+
+    public int[] readIntArray() throws IOException {
+        this.consume(TAG_INT_ARRAY);
+        int[] value = new int[this.readLength()];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = this.in.readInt();
+        }
+        return value;
+    }
+
+    /**
+     * Skips the value of the current element without decoding it
+     * @throws IOException
+     */
+    public void skip() throws IOException {
+        if (!this.pending) {
+            throw new IllegalStateException("No value to skip");
+        }
+        this.pending = false;
+        this.skipValue(this.type, this.depth);
+    }
+
+    private void skipValue(byte type, int depth) throws IOException {
+        switch (type) {
+        case TAG_BYTE:
+            this.skipBytes(1);
+            break;
+        case TAG_SHORT:
+            this.skipBytes(2);
+            break;
+        case TAG_INT:
+        case TAG_FLOAT:
+            this.skipBytes(4);
+            break;
+        case TAG_LONG:
+        case TAG_DOUBLE:
+            this.skipBytes(8);
+            break;
+        case TAG_BYTE_ARRAY:
+            this.skipBytes(this.readLength());
+            break;
+        case TAG_INT_ARRAY:
+            this.skipBytes(this.readLength() * 4L);
+            break;
+        case TAG_STRING:
+            this.skipBytes(this.in.readUnsignedShort());
+            break;
+        case TAG_LIST:
+            if (depth >= MAX_DEPTH) {
+                throw new IOException("NBT nested deeper than " + MAX_DEPTH);
+            }
+            byte elementType = this.in.readByte();
+            int length = this.readLength();
+            if (length > 0) {
+                checkType(elementType);
+            }
+            for (int i = 0; i < length; i++) {
+                this.skipValue(elementType, depth + 1);
+            }
+            break;
+        case TAG_COMPOUND:
+            if (depth >= MAX_DEPTH) {
+                throw new IOException("NBT nested deeper than " + MAX_DEPTH);
+            }
+            byte entryType = this.in.readByte();
+            while (entryType != TAG_END) {
+                checkType(entryType);
+                this.skipBytes(this.in.readUnsignedShort());
+                this.skipValue(entryType, depth + 1);
+                entryType = this.in.readByte();
+            }
+            break;
+        default:
+            throw new IOException("Unknown NBT type " + type);
+        }
+    }
+
+    private void consume(byte expected) {
+        if (!this.pending || this.type != expected) {
+            throw new IllegalStateException("Current element is not an unread value of type " + expected);
+        }
+        this.pending = false;
+    }
+
+    private int readLength() throws IOException {
+        int length = this.in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative NBT array length " + length);
+        }
+        return length;
+    }
+
+    private void readName() throws IOException {
+        int length = this.in.readUnsignedShort();
+        if (length > this.name.length) {
+            this.name = new byte[Math.max(length, this.name.length * 2)];
+        }
+        this.in.readFully(this.name, 0, length);
+        this.nameLength = length;
+    }
+
+    private void skipBytes(long count) throws IOException {
+        while (count > 0) {
+            int skipped = this.in.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                this.in.readByte(); // Streams may skip nothing short of the end - throws EOFException there
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void checkType(byte type) throws IOException {
+        if (type <= TAG_END || type > TAG_INT_ARRAY) {
+            throw new IOException("Unknown NBT type " + type);
+        }
+    }
+
+    /**
+     * Encodes a name as stored in NBT, for use with {@link #isNamed(byte[])}
+     * @param name
+     * @return The name in modified UTF-8
+     */
+    public static byte[] encode(String name) {
+        int length = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            length += c >= 0x01 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        byte[] encoded = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                encoded[pos++] = (byte) c;
+            } else if (c <= 0x7FF) {
+                encoded[pos++] = (byte) (0xC0 | (c >> 6));
+                encoded[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                encoded[pos++] = (byte) (0xE0 | (c >> 12));
+                encoded[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                encoded[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return encoded;
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int pos = 0;
+        while (pos < length) {
+            int b = bytes[pos++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0 && pos < length) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+            } else if (pos + 1 < length) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[pos++] & 0x3F) << 6) | (bytes[pos++] & 0x3F));
+            } else {
+                break; // Truncated sequence
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Reads big endian values from a buffer, as {@link DataInput} does from a stream
+     */
+    private static final class ByteBufferInput implements DataInput {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private ByteBuffer require(int bytes) throws EOFException {
+            if (this.buffer.remaining() < bytes) {
+                throw new EOFException();
+            }
+            return this.buffer;
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            this.readFully(b, 0, b.length);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            try {
+                this.buffer.get(b, off, len);
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public int skipBytes(int n) {
+            int skipped = Math.max(0, Math.min(n, this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return this.require(1).get() != 0;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return this.require(1).get();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return this.require(1).get() & 0xFF;
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            return this.require(2).getShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return this.require(2).getShort() & 0xFFFF;
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return this.require(2).getChar();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return this.require(4).getInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return this.require(8).getLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return this.require(4).getFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return this.require(8).getDouble();
+        }
+
+        @Override
+        public String readLine() {
+            throw new UnsupportedOperationException("NBT is binary and has no lines to read");
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+    }
+}
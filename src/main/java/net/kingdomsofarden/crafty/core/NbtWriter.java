@@ -0,0 +1,163 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A streaming writer for the binary NBT format, the counterpart of {@link NbtReader}. Elements are written
+ * as they are given, without building a tree - names are required inside compounds and ignored inside lists,
+ * where the element type and length are declared up front with {@link #beginList(String, byte, int)}.<br>
+ * <br>
+ * Output for compressed files must be wrapped in a {@link java.util.zip.GZIPOutputStream} by the caller.
+ * Not thread safe.
+ */
+public final class NbtWriter {
+
+    private final DataOutput out;
+
+    // Open containers - the element type and remaining length of lists, TAG_END for compounds
+    private final byte[] listTypes = new byte[NbtReader.MAX_DEPTH];
+    private final int[] remaining = new int[NbtReader.MAX_DEPTH];
+    private int depth;
+    private boolean rootWritten;
+
+    /**
+     * @param out
+     */
+    public NbtWriter(DataOutput out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a compound, whose entries are written until the matching {@link #endCompound()}
+     * @param name
+     * @throws IOException
+     */
+    public void beginCompound(String name) throws IOException {
+        this.header(NbtReader.TAG_COMPOUND, name);
+        this.push(NbtReader.TAG_END, -1);
+    }
+
+    public void endCompound() throws IOException {
+        if (this.depth == 0 || this.listTypes[this.depth - 1] != NbtReader.TAG_END) {
+            throw new IllegalStateException("Not inside a compound");
+        }
+        this.out.writeByte(NbtReader.TAG_END);
+        this.depth--;
+    }
+
+    /**
+     * Starts a list, whose elements are written until the matching {@link #endList()}
+     * @param name
+     * @param elementType The type of every element
+     * @param length The number of elements that will be written
+     * @throws IOException
+     */
+    public void beginList(String name, byte elementType, int length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative list length " + length);
+        }
+        if (elementType <= NbtReader.TAG_END || elementType > NbtReader.TAG_INT_ARRAY) {
+            throw new IllegalArgumentException("Unknown NBT type " + elementType);
+        }
+        this.header(NbtReader.TAG_LIST, name);
+        this.out.writeByte(elementType);
+        this.out.writeInt(length);
+        this.push(elementType, length);
+    }
+
+    public void endList() {
+        if (this.depth == 0 || this.listTypes[this.depth - 1] == NbtReader.TAG_END) {
+            throw new IllegalStateException("Not inside a list");
+        }
+        if (this.remaining[this.depth - 1] != 0) {
+            throw new IllegalStateException(this.remaining[this.depth - 1] + " declared list elements were not written");
+        }
+        this.depth--;
+    }
+
+    public void writeByte(String name, byte value) throws IOException {
+        this.header(NbtReader.TAG_BYTE, name);
+        this.out.writeByte(value);
+    }
+
+    public void writeShort(String name, short value) throws IOException {
+        this.header(NbtReader.TAG_SHORT, name);
+        this.out.writeShort(value);
+    }
+
+    public void writeInt(String name, int value) throws IOException {
+        this.header(NbtReader.TAG_INT, name);
+        this.out.writeInt(value);
+    }
+
+    public void writeLong(String name, long value) throws IOException {
+        this.header(NbtReader.TAG_LONG, name);
+        this.out.writeLong(value);
+    }
+
+    public void writeFloat(String name, float value) throws IOException {
+        this.header(NbtReader.TAG_FLOAT, name);
+        this.out.writeFloat(value);
+    }
+
+    public void writeDouble(String name, double value) throws IOException {
+        this.header(NbtReader.TAG_DOUBLE, name);
+        this.out.writeDouble(value);
+    }
+
+    public void writeString(String name, String value) throws IOException {
+        this.header(NbtReader.TAG_STRING, name);
+        this.out.writeUTF(value);
+    }
+
+    public void writeByteArray(String name, byte[] value) throws IOException {
+        this.header(NbtReader.TAG_BYTE_ARRAY, name);
+        this.out.writeInt(value.length);
+        this.out.write(value);
+    }
+
+    public void writeIntArray(String name, int[] value) throws IOException {
+        this.header(NbtReader.TAG_INT_ARRAY, name);
+        this.out.writeInt(value.length);
+        for (int i : value) {
+            this.out.writeInt(i);
+        }
+    }
+
+    private void header(byte type, String name) throws IOException {
+        if (this.depth == 0) {
+            if (this.rootWritten) {
+                throw new IllegalStateException("The root tag has already been written");
+            }
+            this.rootWritten = true;
+            this.out.writeByte(type);
+            this.out.writeUTF(name == null ? "" : name);
+            return;
+        }
+        int top = this.depth - 1;
+        if (this.listTypes[top] == NbtReader.TAG_END) {
+            if (name == null) {
+                throw new IllegalArgumentException("Compound entries must be named");
+            }
+            this.out.writeByte(type);
+            this.out.writeUTF(name);
+        } else {
+            if (this.listTypes[top] != type) {
+                throw new IllegalArgumentException("Cannot add type " + type + " to a list of type " + this.listTypes[top]);
+            }
+            if (this.remaining[top] == 0) {
+                throw new IllegalStateException("More elements written than the list declared");
+            }
+            this.remaining[top]--;
+        }
+    }
+
+    private void push(byte listType, int length) {
+        if (this.depth == NbtReader.MAX_DEPTH) {
+            throw new IllegalStateException("NBT nested deeper than " + NbtReader.MAX_DEPTH);
+        }
+        this.listTypes[this.depth] = listType;
+        this.remaining[this.depth++] = length;
+    }
+}
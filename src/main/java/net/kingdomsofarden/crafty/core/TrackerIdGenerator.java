@@ -0,0 +1,157 @@
+package net.kingdomsofarden.crafty.core;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the tracker ids of newly tracked items. Two strategies are available:
+ * <ul>
+ *   <li>{@link #random()} - random (version 4) UUIDs, drawn from a SecureRandom</li>
+ *   <li>{@link #timeOrdered(int)} - time ordered (version 7) UUIDs built from the time in milliseconds, a
+ *   node id, a per-thread slot and a per-thread counter, without locking or entropy once a thread has its
+ *   slot. Ids are unique across servers as long as each server generating ids has a different node id.</li>
+ * </ul>
+ * Neither produces version 8 ids, which are reserved for content ids, see {@link ItemStorageFormat#contentId(long, long)}.
+ */
+public abstract class TrackerIdGenerator {
+
+    /**
+     * Number of distinct node ids accepted by {@link #timeOrdered(int)}
+     */
+    public static final int NODE_COUNT = 1 << 16;
+
+    TrackerIdGenerator() {
+    }
+
+    /**
+     * @return A new tracker id
+     */
+    public abstract UUID next();
+
+    /**
+     * @return A generator of random ids
+     */
+    public static TrackerIdGenerator random() {
+        return new RandomGenerator();
+    }
+
+    /**
+     * @param node The id of this server, from 0 to {@link #NODE_COUNT} - 1
+     * @return A generator of time ordered ids
+     */
+    public static TrackerIdGenerator timeOrdered(int node) {
+        if (node < 0 || node >= NODE_COUNT) {
+            throw new IllegalArgumentException("Node id " + node + " out of range");
+        }
+        return new TimeOrderedGenerator(node);
+    }
+
+    private static final class RandomGenerator extends TrackerIdGenerator {
+
+        @Override
+        public UUID next() {
+            return UUID.randomUUID();
+        }
+    }
+
+    /**
+     * Layout, most significant bits first: 48 bits of time, version, 12 high counter bits | variant, 16 bits of
+     * node, 10 bits of thread slot, 36 low counter bits. Each thread keeps its own clock, which never runs
+     * backwards and moves to the next millisecond when the counter runs out.<br>
+     * <br>
+     * A thread takes a slot on its first id and holds it until it terminates, after which the next thread
+     * to need a slot continues from the clock and counter the slot was left with. While all slots are held
+     * by live threads, further threads share the last slot, drawing from one counter updated by CAS.
+     */
+    private static final class TimeOrderedGenerator extends TrackerIdGenerator {
+
+        private static final int THREAD_SLOTS = 1 << 10;
+        private static final int SHARED_SLOT = THREAD_SLOTS - 1;
+        private static final long COUNTER_LIMIT = 1L << 48;
+        private static final int SHARED_COUNTER_BITS = 16;
+
+        private final long nodeBits;
+        private final State[] slots = new State[SHARED_SLOT];
+        private int nextSlot;
+        // Time in milliseconds << 16 | counter of the shared slot, counter overflow carries into the time
+        private final AtomicLong shared = new AtomicLong();
+        private final ThreadLocal<State> states = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return allocate();
+            }
+        };
+
+        TimeOrderedGenerator(int node) {
+            this.nodeBits = (long) node << 46;
+        }
+
+        /**
+         * @return A slot not held by a live thread, now held by the current thread, or null if there is none
+         */
+        private synchronized State allocate() {
+            Thread current = Thread.currentThread();
+            for (int i = 0; i < SHARED_SLOT; i++) {
+                int slot = this.nextSlot;
+                this.nextSlot = slot + 1 == SHARED_SLOT ? 0 : slot + 1;
+                State state = this.slots[slot];
+                if (state == null) {
+                    state = new State(slot);
+                    this.slots[slot] = state;
+                } else if (state.owner.isAlive()) {
+                    continue;
+                }
+                // The previous owner's last id happens-before isAlive returning false
+                state.owner = current;
+                return state;
+            }
+            return null;
+        }
+
+        @Override
+        public UUID next() {
+            State state = this.states.get();
+            long now = System.currentTimeMillis();
+            if (state == null) {
+                return this.nextShared(now);
+            }
+            if (now > state.millis) {
+                state.millis = now;
+                state.counter = 0;
+            } else if (++state.counter == COUNTER_LIMIT) {
+                state.millis++;
+                state.counter = 0;
+            }
+            return this.build(state.millis, state.slotBits, state.counter);
+        }
+
+        private UUID nextShared(long now) {
+            long last;
+            long next;
+            do {
+                last = this.shared.get();
+                next = Math.max(now << SHARED_COUNTER_BITS, last + 1);
+            } while (!this.shared.compareAndSet(last, next));
+            return this.build(next >>> SHARED_COUNTER_BITS, (long) SHARED_SLOT << 36,
+                    next & ((1L << SHARED_COUNTER_BITS) - 1));
+        }
+
+        private UUID build(long millis, long slotBits, long counter) {
+            long most = (millis << 16) | 0x7000L | (counter >>> 36);
+            long least = 0x8000000000000000L | this.nodeBits | slotBits | (counter & 0xFFFFFFFFFL);
+            return new UUID(most, least);
+        }
+
+        private static final class State {
+
+            private final long slotBits;
+            private Thread owner;
+            private long millis;
+            private long counter;
+
+            State(int slot) {
+                this.slotBits = (long) slot << 36;
+            }
+        }
+    }
+}
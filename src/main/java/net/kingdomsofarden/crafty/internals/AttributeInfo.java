@@ -22,6 +22,18 @@ public class AttributeInfo {
         this.amount = amount;
     }
 
+    public AttributeType getType() {
+        return this.type;
+    }
+
+    public Operation getOperation() {
+        return this.operation;
+    }
+
+    public double getAmount() {
+        return this.amount;
+    }
+
     public Attribute toAttribute() {
         return Attribute.newBuilder().uuid(this.identifier).name(this.name).type(this.type)
                 .operation(this.operation).amount(this.amount).build();
@@ -0,0 +1,33 @@
+package net.kingdomsofarden.crafty.internals;
+
+import java.util.UUID;
+
+import net.kingdomsofarden.crafty.core.ItemDataHandle;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * {@link ItemDataHandle} over the NBT of a CraftItemStack
+ */
+public class BukkitItemDataHandle implements ItemDataHandle {
+
+    private final ItemStack item;
+
+    public BukkitItemDataHandle(ItemStack item) {
+        this.item = item;
+    }
+
+    public ItemStack getItem() {
+        return this.item;
+    }
+
+    @Override
+    public String getData(long most, long least) {
+        return NBTUtil.getData(most, least, this.item);
+    }
+
+    @Override
+    public void setData(long most, long least, String data) {
+        NBTUtil.writeData(new UUID(most, least), data, this.item);
+    }
+}
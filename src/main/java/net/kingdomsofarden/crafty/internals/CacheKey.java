@@ -7,16 +7,32 @@ import org.bukkit.inventory.ItemStack;
 public class CacheKey {
     
     private final ItemStack item;
-    private final UUID itemId;
+    private final long mostSigBits;
+    private final long leastSigBits;
+    private UUID itemId;
     
     public CacheKey(ItemStack item, UUID id) {
-        this.item = item;
+        this(item, id.getMostSignificantBits(), id.getLeastSignificantBits());
         this.itemId = id;
     }
     
+    /**
+     * Primitive form of the key, used by the NBT fast path to avoid constructing a {@link UUID}
+     * @param item
+     * @param mostSigBits Most significant bits of the item tracker id
+     * @param leastSigBits Least significant bits of the item tracker id
+     */
+    public CacheKey(ItemStack item, long mostSigBits, long leastSigBits) {
+        this.item = item;
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+    }
+    
     @Override
     public int hashCode() {
-        return itemId.hashCode();
+        // Same distribution as UUID#hashCode()
+        long hilo = mostSigBits ^ leastSigBits;
+        return ((int) (hilo >> 32)) ^ (int) hilo;
     }
     
     @Override
@@ -25,11 +41,8 @@ public class CacheKey {
             return false;
         }
         if (obj instanceof CacheKey) {
-            if (itemId.equals(((CacheKey)obj).itemId)) {
-                return true;
-            } else {
-                return false;
-            }
+            CacheKey other = (CacheKey) obj;
+            return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
         } else {
             return false;
         }
@@ -40,7 +53,18 @@ public class CacheKey {
     }
     
     public UUID getItemUuid() {
+        if (this.itemId == null) {
+            this.itemId = new UUID(mostSigBits, leastSigBits);
+        }
         return this.itemId;
     }
     
+    public long getMostSignificantBits() {
+        return this.mostSigBits;
+    }
+    
+    public long getLeastSignificantBits() {
+        return this.leastSigBits;
+    }
+    
 }
@@ -0,0 +1,125 @@
+package net.kingdomsofarden.crafty.internals;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.kingdomsofarden.crafty.core.ItemIndex;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.InventoryHolder;
+
+/**
+ * Maps the owners of cached items to the partition ids stored in the {@link ItemIndex}. An owner is
+ * the unique id of a player (covering both their inventory and ender chest) or the location of a
+ * block container. Items looked up without an owner live in the {@link #GLOBAL} partition.<br>
+ * <br>
+ * Not thread safe - access is synchronized by {@link ItemCache}
+ */
+public class CachePartitions {
+
+    public static final int GLOBAL = 0;
+
+    private final Map<Object, Integer> ids;
+    private final LinkedList<Integer> freeIds;
+    private int nextId;
+
+    public CachePartitions() {
+        this.ids = new HashMap<Object, Integer>();
+        this.freeIds = new LinkedList<Integer>();
+        this.nextId = GLOBAL + 1;
+    }
+
+    /**
+     * @param holder
+     * @return The owner key for the holder, or null if the holder is not partitioned
+     */
+    public static Object getOwner(InventoryHolder holder) {
+        if (holder instanceof HumanEntity) {
+            return ((HumanEntity) holder).getUniqueId();
+        } else if (holder instanceof BlockState) {
+            return ((BlockState) holder).getLocation();
+        } else if (holder instanceof DoubleChest) {
+            return ((DoubleChest) holder).getLocation();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @param owner
+     * @return The partition id of the owner, allocating one if necessary
+     */
+    public int getId(Object owner) {
+        if (owner == null) {
+            return GLOBAL;
+        }
+        Integer id = this.ids.get(owner);
+        if (id == null) {
+            id = this.freeIds.isEmpty() ? this.nextId++ : this.freeIds.poll();
+            this.ids.put(owner, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param owner
+     * @return The partition id of the owner, or -1 if it has none
+     */
+    public int lookup(Object owner) {
+        Integer id = owner == null ? null : this.ids.get(owner);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Collects the owners of every partitioned block container within a chunk
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @param owners List to which the owners are added
+     */
+    public void getOwnersInChunk(World world, int chunkX, int chunkZ, List<Object> owners) {
+        for (Object owner : this.ids.keySet()) {
+            if (!(owner instanceof Location)) {
+                continue;
+            }
+            Location location = (Location) owner;
+            if ((location.getBlockX() >> 4) == chunkX && (location.getBlockZ() >> 4) == chunkZ
+                    && world.equals(location.getWorld())) {
+                owners.add(owner);
+            }
+        }
+    }
+
+    /**
+     * Releases the partition id of an owner for reuse. The partition must be empty.
+     * @param owner
+     */
+    public void release(Object owner) {
+        Integer id = this.ids.remove(owner);
+        if (id != null) {
+            this.freeIds.add(id);
+        }
+    }
+
+    /**
+     * Releases the ids of all partitions that no longer hold any entries
+     * @param index
+     */
+    public void releaseEmpty(ItemIndex<?> index) {
+        Iterator<Integer> it = this.ids.values().iterator();
+        while (it.hasNext()) {
+            Integer id = it.next();
+            if (index.partitionSize(id) == 0) {
+                it.remove();
+                this.freeIds.add(id);
+            }
+        }
+    }
+}
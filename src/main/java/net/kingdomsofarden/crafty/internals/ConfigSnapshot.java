@@ -0,0 +1,159 @@
+package net.kingdomsofarden.crafty.internals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import net.kingdomsofarden.crafty.api.Module;
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+import net.kingdomsofarden.crafty.core.MigrationTable;
+
+/**
+ * An immutable view of the reloadable parts of the configuration - the lore order and the module
+ * migration table. {@link ConfigurationManager} swaps in a new snapshot on reload, so a reader that
+ * holds on to one snapshot always sees a consistent order and migration pair.<br>
+ * <br>
+ * Each snapshot carries a schema stamp covering the storage format version, the lore order, the
+ * migrations and the set of registered modules. Items saved under a snapshot are stamped with it,
+ * and an item whose stamp matches the current snapshot needs neither migration nor rewriting on load.
+ */
+public final class ConfigSnapshot {
+
+    private final Map<UUID, Integer> orderedModulesByUUID;
+    private final MigrationTable migrations;
+    private final long schemaStamp;
+
+    /**
+     * @param orderedModulesByUUID Lore weight of each ordered module, lower weights first - copied
+     * @param migrations
+     * @param registeredModules The ids of all registered modules
+     */
+    public ConfigSnapshot(Map<UUID, Integer> orderedModulesByUUID, MigrationTable migrations,
+            Collection<UUID> registeredModules) {
+        this.orderedModulesByUUID = Collections.unmodifiableMap(new HashMap<UUID, Integer>(orderedModulesByUUID));
+        this.migrations = migrations;
+        this.schemaStamp = this.computeSchemaStamp(registeredModules);
+    }
+
+    private long computeSchemaStamp(Collection<UUID> registeredModules) {
+        long order = this.orderedModulesByUUID.size();
+        for (UUID id : this.getOrder(this.orderedModulesByUUID.keySet())) {
+            order = ItemStorageFormat.mix(order, id);
+        }
+        long registry = 0;
+        for (UUID id : registeredModules) {
+            registry += ItemStorageFormat.mix(0, id);
+        }
+        long stamp = ItemStorageFormat.mix(ItemStorageFormat.FORMAT_VERSION, order);
+        stamp = ItemStorageFormat.mix(stamp, this.migrations.fingerprint());
+        stamp = ItemStorageFormat.mix(stamp, registry);
+        return stamp == 0 ? 1 : stamp; // 0 marks an unstamped item
+    }
+
+    /**
+     * @return The schema stamp of this configuration, never 0
+     */
+    public long getSchemaStamp() {
+        return this.schemaStamp;
+    }
+
+    /**
+     * @param id
+     * @return Whether the module is present in the configured lore order
+     */
+    public boolean isOrdered(UUID id) {
+        return this.orderedModulesByUUID.containsKey(id);
+    }
+
+    public MigrationTable getMigrations() {
+        return this.migrations;
+    }
+
+    /**
+     * @param modules
+     * @return The combined lore sections of the modules in configured order, or null if no order is configured
+     */
+    public List<String> getOrderedLore(Map<UUID, Module> modules) {
+        if (this.orderedModulesByUUID.isEmpty()) {
+            return null;
+        }
+        TreeSet<WeightedModule> sortedModules = new TreeSet<WeightedModule>();
+        for (Map.Entry<UUID, Module> entry : modules.entrySet()) {
+            Integer weight = this.orderedModulesByUUID.get(entry.getKey());
+            if (weight != null) {
+                sortedModules.add(new WeightedModule(weight, entry.getValue()));
+            }
+        }
+        List<String> lore = new LinkedList<String>();
+        WeightedModule m = sortedModules.pollFirst();
+        while (m != null) {
+            List<String> add = m.getModule().getLoreSection();
+            if (add != null) {
+                lore.addAll(add);
+            }
+            m = sortedModules.pollFirst();
+        }
+        return lore;
+    }
+
+    /**
+     * Checks whether the lore rendered for a set of modules differs in layout between two snapshots,
+     * i.e. whether the modules that contribute lore or their relative order changed
+     * @param other
+     * @param moduleIds
+     * @return True if lore rendered under this snapshot may differ from lore rendered under the other
+     */
+    public boolean isOrderChanged(ConfigSnapshot other, Collection<UUID> moduleIds) {
+        if (this.orderedModulesByUUID.isEmpty() != other.orderedModulesByUUID.isEmpty()) {
+            return true; // Lore is cleared rather than rendered when no order is configured
+        }
+        return !this.getOrder(moduleIds).equals(other.getOrder(moduleIds));
+    }
+
+    private List<UUID> getOrder(Collection<UUID> moduleIds) {
+        List<UUID> ordered = new ArrayList<UUID>(moduleIds.size());
+        for (UUID id : moduleIds) {
+            if (this.orderedModulesByUUID.containsKey(id)) {
+                ordered.add(id);
+            }
+        }
+        Collections.sort(ordered, new Comparator<UUID>() {
+            @Override
+            public int compare(UUID a, UUID b) {
+                return orderedModulesByUUID.get(a) - orderedModulesByUUID.get(b);
+            }
+        });
+        return ordered;
+    }
+
+    private static class WeightedModule implements Comparable<WeightedModule> {
+
+        private int weight;
+        private Module m;
+
+        public WeightedModule(int weight, Module m) {
+            this.weight = weight;
+            this.m = m;
+        }
+
+        public Module getModule() {
+            return this.m;
+        }
+
+        @Override
+        public int compareTo(WeightedModule o) {
+            if (o == null) {
+                throw new NullPointerException();
+            }
+            return this.weight - o.weight;
+        }
+
+    }
+}
@@ -1,41 +1,79 @@
 package net.kingdomsofarden.crafty.internals;
 
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 
+import org.bukkit.Material;
 import org.bukkit.configuration.file.FileConfiguration;
 
 import net.kingdomsofarden.crafty.Crafty;
 import net.kingdomsofarden.crafty.api.Module;
 import net.kingdomsofarden.crafty.api.ModuleRegistrar;
+import net.kingdomsofarden.crafty.core.MigrationTable;
 
 public class ConfigurationManager {
     
     private Crafty plugin;
     private ModuleRegistrar registrar;
     private FileConfiguration config;
-    private HashMap<UUID,Integer> orderedModulesByUUID;
-    private Map<UUID,UUID> migrationMap;
-    private boolean orderMappingEmpty;
+    private volatile ConfigSnapshot snapshot;
+    private boolean weakItemBinding;
+    private boolean eventInvalidation;
+    private boolean warmStart;
+    private int warmStartEntries;
+    private boolean syncEnabled;
+    private String syncTransport;
+    private int syncTimeToLive;
+    private boolean nbtWrapperCaching;
+    private Set<Material> contentIdentity;
+    private String trackerIdGenerator;
+    private int nodeId;
     
     private static final String CONFIGKEY_MODULE_ORDER = "modules.order";
     private static final String CONFIGKEY_MODULE_MIGRATION = "modules.migration";
+    private static final String CONFIGKEY_CACHE_WEAK_BINDING = "cache.weak-binding";
+    private static final String CONFIGKEY_CACHE_EVENT_INVALIDATION = "cache.event-invalidation";
+    private static final String CONFIGKEY_CACHE_WARM_START = "cache.warm-start";
+    private static final String CONFIGKEY_CACHE_WARM_START_ENTRIES = "cache.warm-start-entries";
+    private static final String CONFIGKEY_SYNC_ENABLED = "sync.enabled";
+    private static final String CONFIGKEY_SYNC_TRANSPORT = "sync.transport";
+    private static final String CONFIGKEY_SYNC_TTL = "sync.ttl-seconds";
+    private static final String CONFIGKEY_NBT_WRAPPER_CACHING = "nbt.wrapper-caching";
+    private static final String CONFIGKEY_TRACKING_CONTENT_IDENTITY = "tracking.content-identity";
+    private static final String CONFIGKEY_TRACKING_ID_GENERATOR = "tracking.id-generator";
+    private static final String CONFIGKEY_TRACKING_NODE_ID = "tracking.node-id";
     
     public ConfigurationManager(Crafty plugin) throws IOException {
         this.plugin = plugin;
         this.registrar = plugin.getModuleRegistrar();
         this.loadConfig();
-        this.reloadConfigValues();
-        for (Map.Entry<UUID,String> entry : this.registrar.getRegisteredModules().entrySet()) {
-            this.registerModule(entry.getKey(), entry.getValue());
+        this.snapshot = this.loadSnapshot();
+        // Cache and sync settings shape the cache itself and only take effect on restart
+        this.weakItemBinding = this.config.getBoolean(CONFIGKEY_CACHE_WEAK_BINDING, false);
+        this.eventInvalidation = this.config.getBoolean(CONFIGKEY_CACHE_EVENT_INVALIDATION, false);
+        this.warmStart = this.config.getBoolean(CONFIGKEY_CACHE_WARM_START, false);
+        this.warmStartEntries = this.config.getInt(CONFIGKEY_CACHE_WARM_START_ENTRIES, 4096);
+        this.syncEnabled = this.config.getBoolean(CONFIGKEY_SYNC_ENABLED, false);
+        this.syncTransport = this.config.getString(CONFIGKEY_SYNC_TRANSPORT, "bungee");
+        this.syncTimeToLive = this.config.getInt(CONFIGKEY_SYNC_TTL, 60);
+        this.nbtWrapperCaching = this.config.getBoolean(CONFIGKEY_NBT_WRAPPER_CACHING, false);
+        this.contentIdentity = EnumSet.noneOf(Material.class);
+        for (String string : this.config.getStringList(CONFIGKEY_TRACKING_CONTENT_IDENTITY)) {
+            Material material = Material.matchMaterial(string);
+            if (material != null) {
+                this.contentIdentity.add(material);
+            } else {
+                plugin.getLogger().log(Level.WARNING, "Unknown material " + string + " in content identity config");
+            }
         }
-        this.reloadConfigValues();
+        this.trackerIdGenerator = this.config.getString(CONFIGKEY_TRACKING_ID_GENERATOR, "random");
+        this.nodeId = this.config.getInt(CONFIGKEY_TRACKING_NODE_ID, -1);
     }
     
     private void loadConfig() {
@@ -43,18 +81,38 @@ public class ConfigurationManager {
         this.config = plugin.getConfig();
     }
     
-    private void reloadConfigValues() {
-        this.orderedModulesByUUID = new HashMap<UUID,Integer>();
+    /**
+     * Re-reads the configuration from disk and swaps in a new snapshot of the lore order and
+     * migrations. Cache and sync settings are not reloaded.
+     * @return The snapshot that was replaced
+     */
+    public ConfigSnapshot reload() {
+        this.plugin.reloadConfig();
+        this.config = this.plugin.getConfig();
+        ConfigSnapshot previous = this.snapshot;
+        this.snapshot = this.loadSnapshot();
+        return previous;
+    }
+    
+    private ConfigSnapshot loadSnapshot() {
+        ConfigSnapshot loaded = this.readSnapshot();
+        if (this.registerModules(loaded, this.registrar.getRegisteredModules())) {
+            loaded = this.readSnapshot();
+        }
+        return loaded;
+    }
+    
+    private ConfigSnapshot readSnapshot() {
+        Map<UUID,Integer> orderedModulesByUUID = new HashMap<UUID,Integer>();
         int weight = 0;
         for (String string : this.config.getStringList(CONFIGKEY_MODULE_ORDER)) {
             weight++;
             UUID map = registrar.getModuleUuid(string);
             if (map != null) {
-                this.orderedModulesByUUID.put(map, weight);
+                orderedModulesByUUID.put(map, weight);
             }
         }
-        this.orderMappingEmpty = orderedModulesByUUID.size() == 0;
-        this.migrationMap = new HashMap<UUID,UUID>();
+        Map<UUID,UUID> migrationMap = new HashMap<UUID,UUID>();
         for (String string : this.config.getStringList(CONFIGKEY_MODULE_MIGRATION)) {
             String[] parsed = string.split(">");
             try {
@@ -64,6 +122,8 @@ public class ConfigurationManager {
                 e.printStackTrace();
             }
         }
+        return new ConfigSnapshot(orderedModulesByUUID, new MigrationTable(migrationMap),
+                this.registrar.getRegisteredModules().keySet());
     }
     
     private void saveConfig() {
@@ -71,68 +131,133 @@ public class ConfigurationManager {
     }
     
     public List<String> getOrderedLore(Map<UUID, Module> modules) {
-        int sortSize = modules.keySet().size();
-        if (sortSize < 0 || orderMappingEmpty) {
-            return null;
-        }
-        TreeSet<WeightedModule> sortedModules = new TreeSet<WeightedModule>();
-        for (UUID id : modules.keySet()) {
-            if (orderedModulesByUUID.containsKey(id)) {
-                sortedModules.add(new WeightedModule(orderedModulesByUUID.get(id), modules.get(id)));
-            }
-        }
-        List<String> lore = new LinkedList<String>();
-        WeightedModule m = sortedModules.pollFirst();
-        while (m != null) {
-            List<String> add = m.getModule().getLoreSection();
-            if (add != null) {
-                lore.addAll(m.getModule().getLoreSection());
-            }
-            m = sortedModules.pollFirst();
-        }
-        return lore;
+        return this.snapshot.getOrderedLore(modules);
     }
     
-    private void registerModule(UUID id, String name) {
-        if (!orderedModulesByUUID.containsKey(id)) {
-            List<String> preexisting = config.getStringList(CONFIGKEY_MODULE_ORDER);
-            preexisting.add(name);
-            this.config.set(CONFIGKEY_MODULE_ORDER, preexisting);
-            this.saveConfig();
+    /**
+     * Appends every module missing from the configured lore order, saving the config once
+     * @param current
+     * @param modules
+     * @return Whether the config was changed
+     */
+    private boolean registerModules(ConfigSnapshot current, Map<UUID, String> modules) {
+        List<String> order = null;
+        for (Map.Entry<UUID,String> entry : modules.entrySet()) {
+            if (!current.isOrdered(entry.getKey())) {
+                if (order == null) {
+                    order = config.getStringList(CONFIGKEY_MODULE_ORDER);
+                }
+                order.add(entry.getValue());
+            }
+        }
+        if (order == null) {
+            return false;
         }
+        this.config.set(CONFIGKEY_MODULE_ORDER, order);
+        this.saveConfig();
+        return true;
     }
     
     public boolean hasMigration(UUID id) {
-        return this.migrationMap.containsKey(id);
+        return this.snapshot.getMigrations().get(id) != null;
     }
     
     public UUID getMigratedModule(UUID id) {
-        return this.migrationMap.get(id);
+        return this.snapshot.getMigrations().get(id);
     }
     
+    /**
+     * @return The configured module migrations
+     */
+    public MigrationTable getMigrations() {
+        return this.snapshot.getMigrations();
+    }
     
-    private class WeightedModule implements Comparable<WeightedModule> {
-        
-        private int weight;
-        private Module m;
-        
-        public WeightedModule(int weight, Module m) {
-            this.weight = weight;
-            this.m = m;
-        }
-        
-        public Module getModule() {
-            return this.m;
-        }
-        
-        @Override
-        public int compareTo(WeightedModule o) {
-            if (o == null) {
-                throw new NullPointerException();
-            }
-            return this.weight - o.weight;
-        }
-        
+    /**
+     * @return The current lore order and migrations. Hold on to the returned snapshot rather than
+     * calling this repeatedly when both must be consistent with each other.
+     */
+    public ConfigSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+    
+    /**
+     * @return Whether cached items should hold their ItemStacks through weak references
+     */
+    public boolean isWeakItemBinding() {
+        return this.weakItemBinding;
+    }
+    
+    /**
+     * @return Whether cached items should be flushed/evicted in response to inventory and entity events
+     */
+    public boolean isEventInvalidation() {
+        return this.eventInvalidation;
+    }
+    
+    /**
+     * @return Whether the hottest cached items should be saved on disable and restored on the next enable
+     */
+    public boolean isWarmStart() {
+        return this.warmStart;
+    }
+    
+    /**
+     * @return The maximum number of cached items to save for the next enable
+     */
+    public int getWarmStartEntries() {
+        return this.warmStartEntries;
+    }
+    
+    /**
+     * @return Whether cached items should be replicated to other servers when their holder leaves
+     */
+    public boolean isSyncEnabled() {
+        return this.syncEnabled;
+    }
+    
+    /**
+     * @return The name of the transport to replicate items over - bungee or loopback
+     */
+    public String getSyncTransport() {
+        return this.syncTransport;
+    }
+    
+    /**
+     * @return How long received item snapshots are kept for, in seconds
+     */
+    public int getSyncTimeToLive() {
+        return this.syncTimeToLive;
+    }
+    
+    /**
+     * @return Whether NBT wrappers should cache the wrappers of nested compounds and lists
+     */
+    public boolean isNbtWrapperCaching() {
+        return this.nbtWrapperCaching;
+    }
+    
+    /**
+     * @param material
+     * @return Whether items of the material are tracked by their content rather than a random id, so that
+     * items with the same modules stack
+     */
+    public boolean isContentIdentity(Material material) {
+        return this.contentIdentity.contains(material);
+    }
+    
+    /**
+     * @return The name of the strategy for generating new tracker ids - random or time
+     */
+    public String getTrackerIdGenerator() {
+        return this.trackerIdGenerator;
+    }
+    
+    /**
+     * @return The node id of this server for time ordered tracker ids, or -1 if not set
+     */
+    public int getNodeId() {
+        return this.nodeId;
     }
     
 }
@@ -0,0 +1,38 @@
+package net.kingdomsofarden.crafty.internals;
+
+import net.kingdomsofarden.crafty.Crafty;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Handles the /crafty command. Currently supports /crafty reload, which swaps in the lore order and
+ * migrations from disk and re-renders the lore of cached items affected by the new order.
+ */
+public class CraftyCommand implements CommandExecutor {
+
+    private static final String PERMISSION_RELOAD = "crafty.reload";
+
+    private final Crafty plugin;
+
+    public CraftyCommand(Crafty plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length != 1 || !args[0].equalsIgnoreCase("reload")) {
+            return false;
+        }
+        if (!sender.hasPermission(PERMISSION_RELOAD)) {
+            sender.sendMessage("You do not have permission to reload Crafty");
+            return true;
+        }
+        ConfigurationManager config = this.plugin.getConfigurationManager();
+        ConfigSnapshot previous = config.reload();
+        int updated = this.plugin.getItemManager().getItemCache().reorder(previous, config.getSnapshot());
+        sender.sendMessage("Crafty configuration reloaded, lore re-rendered on " + updated + " cached items");
+        return true;
+    }
+}
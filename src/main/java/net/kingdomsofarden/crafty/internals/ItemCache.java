@@ -1,57 +1,448 @@
 package net.kingdomsofarden.crafty.internals;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import net.kingdomsofarden.crafty.Crafty;
 import net.kingdomsofarden.crafty.api.CraftyItem;
+import net.kingdomsofarden.crafty.core.ItemIndex;
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapters;
 
-import java.util.concurrent.ExecutionException;
+import org.bukkit.Chunk;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 
 public class ItemCache {
-    
-    public class CacheRemovalListener implements RemovalListener<CacheKey, CraftyItem> {
+
+    private static final long EXPIRE_AFTER_ACCESS = TimeUnit.MINUTES.toMillis(15);
+    private static final long SWEEP_PERIOD_TICKS = 20 * 60;
+    private static final long COLLECTED_PERIOD_TICKS = 20;
+
+    public class CacheExpiryTask implements Runnable {
 
         @Override
-        public void onRemoval(RemovalNotification<CacheKey, CraftyItem> removed) {
-            removed.getValue().updateItem();
+        public void run() {
+            expire();
+        }
+
+    }
+
+    public class CollectedItemTask implements Runnable {
+
+        @Override
+        public void run() {
+            drainCollected();
+        }
+
+    }
+
+    /**
+     * Weak reference to the native stack backing a cached item that remembers which entry it belongs to once
+     * enqueued. Bukkit mirrors of a native stack are created on every inventory access and are collected long
+     * before the item itself, so the native stack is referenced instead - or the Bukkit stack, if it has none.
+     */
+    private static class StackReference extends WeakReference<Object> {
+
+        private final long mostSigBits;
+        private final long leastSigBits;
+        private final CraftyItem owner;
+
+        public StackReference(Object referent, ReferenceQueue<Object> queue, CacheKey key, CraftyItem owner) {
+            super(referent, queue);
+            this.mostSigBits = key.getMostSignificantBits();
+            this.leastSigBits = key.getLeastSignificantBits();
+            this.owner = owner;
+        }
+
+        public boolean isFor(Object referent, CacheKey key) {
+            return this.get() == referent && this.mostSigBits == key.getMostSignificantBits()
+                    && this.leastSigBits == key.getLeastSignificantBits();
         }
 
     }
 
-    private LoadingCache<CacheKey, CraftyItem> cache;
+    private final ItemIndex<CraftyItem> index;
+    private final CachePartitions partitions;
+    private final ReferenceQueue<Object> collected;
+    private final boolean weakBinding;
     private Crafty plugin;
-    
+    private volatile SnapshotSource[] snapshotSources;
+
     public ItemCache(Crafty itemApiPlugin) {
         this.plugin = itemApiPlugin;
-        this.cache = CacheBuilder.newBuilder()
-                .concurrencyLevel(1)
-                .expireAfterAccess(15,TimeUnit.MINUTES)
-                .removalListener(new CacheRemovalListener())
-                .build(new CacheLoader<CacheKey, CraftyItem>() {
-
-                    @Override
-                    public CraftyItem load(CacheKey obj) {
-                        return new CraftyItem(obj, plugin); 
-                    }
-                });
-    }
-    
-    public CraftyItem get(CacheKey key) throws ExecutionException {
-        if (this.cache.asMap().containsKey(key)) {
-            if (this.cache.get(key).getItem() != key.getItem()) {
-                this.cache.invalidate(key);
-            }
-        }
-        return this.cache.get(key);
-        
-    }
-    
-    public LoadingCache<CacheKey,CraftyItem> get() {
-        return this.cache;
+        this.index = new ItemIndex<CraftyItem>();
+        this.partitions = new CachePartitions();
+        this.collected = new ReferenceQueue<Object>();
+        this.snapshotSources = new SnapshotSource[0];
+        this.weakBinding = itemApiPlugin.getConfigurationManager().isWeakItemBinding();
+        this.plugin.getServer().getScheduler().runTaskTimer(this.plugin, new CacheExpiryTask(),
+                SWEEP_PERIOD_TICKS, SWEEP_PERIOD_TICKS);
+        if (this.weakBinding) {
+            this.plugin.getServer().getScheduler().runTaskTimer(this.plugin, new CollectedItemTask(),
+                    COLLECTED_PERIOD_TICKS, COLLECTED_PERIOD_TICKS);
+        }
+    }
+
+    /**
+     * Adds a source of item snapshots, consulted in order of addition when loading an item
+     * @param source
+     */
+    public synchronized void addSnapshotSource(SnapshotSource source) {
+        SnapshotSource[] sources = Arrays.copyOf(this.snapshotSources, this.snapshotSources.length + 1);
+        sources[sources.length - 1] = source;
+        this.snapshotSources = sources;
+    }
+
+    private ItemSnapshot takeSnapshot(long most, long least) {
+        ItemSnapshot snapshot = null;
+        for (SnapshotSource source : this.snapshotSources) {
+            ItemSnapshot taken = source.take(most, least);
+            if (snapshot == null) {
+                snapshot = taken; // Keep taking from the rest so no source holds on to a stale snapshot
+            }
+        }
+        return snapshot;
+    }
+
+    public CraftyItem get(CacheKey key) {
+        return this.get(key, null);
+    }
+
+    /**
+     * Gets an item, assigning it to its owner's partition
+     * @param key
+     * @param owner The owner key as given by {@link CachePartitions#getOwner(org.bukkit.inventory.InventoryHolder)},
+     * or null to leave the partition of a cached item unchanged
+     * @return The cached item
+     */
+    public synchronized CraftyItem get(CacheKey key, Object owner) {
+        if (this.weakBinding) {
+            this.drainCollected();
+        }
+        long most = key.getMostSignificantBits();
+        long least = key.getLeastSignificantBits();
+        long now = System.currentTimeMillis();
+        int partition = this.index.partitionOf(most, least);
+        if (owner != null || partition == -1) {
+            partition = this.partitions.getId(owner);
+        }
+        CraftyItem item = this.index.get(most, least);
+        if (item != null) {
+            boolean sameStack = item.isBoundTo(key.getItem());
+            long stored = ItemStorageFormat.getFingerprint(new BukkitItemDataHandle(key.getItem()));
+            // The stack still holds the data the item was loaded or last saved with. Unstamped stacks can
+            // only be matched by identity.
+            boolean current = stored == 0 ? sameStack : stored == item.getFingerprint();
+            // Other stacks are copies, which only share the cached item if it is shared by content anyway
+            // and has no unsaved changes that would be moved onto the copy
+            if (current && (sameStack || (!item.hasUnsavedChanges() && ItemStorageFormat.isContentId(most)))) {
+                this.bind(item, key); // Another mirror of the same stack, or another stack with the same content id
+                this.index.touch(most, least, now);
+                this.index.setPartition(most, least, partition);
+                return item;
+            }
+            this.index.remove(most, least);
+            if (!sameStack) {
+                item.updateItem(); // Save to the stack the item was loaded from before loading the copy
+            } else if (item.hasUnsavedChanges()) {
+                this.plugin.getLogger().log(Level.WARNING, "Discarding unsaved module changes for item "
+                        + item.getItemTrackerId() + " as its data was changed outside of Crafty");
+            }
+        }
+        item = new CraftyItem(key, this.plugin, this.takeSnapshot(most, least));
+        this.bind(item, key);
+        this.index.put(most, least, item, now, partition);
+        return item;
+    }
+
+    /**
+     * Files an item under a tracker id it has just been assigned - on its first write if it was loaded
+     * untracked, or when its content id changed - replacing any entry already cached under the id
+     * @param previous The key the item was cached under, or null if it was untracked
+     * @param key
+     * @param item
+     */
+    public synchronized void adopt(CacheKey previous, CacheKey key, CraftyItem item) {
+        long most = key.getMostSignificantBits();
+        long least = key.getLeastSignificantBits();
+        int partition = this.index.partitionOf(most, least);
+        if (previous != null) {
+            long previousMost = previous.getMostSignificantBits();
+            long previousLeast = previous.getLeastSignificantBits();
+            if (this.index.get(previousMost, previousLeast) != item) {
+                return; // Saved on eviction - not cached anymore
+            }
+            partition = this.index.partitionOf(previousMost, previousLeast);
+            this.index.remove(previousMost, previousLeast);
+        }
+        this.bind(item, key);
+        this.index.put(most, least, item, System.currentTimeMillis(), partition == -1 ? CachePartitions.GLOBAL : partition);
+    }
+
+    private void bind(CraftyItem item, CacheKey key) {
+        if (this.weakBinding) {
+            Object handle = NmsAdapters.get().getHandle(key.getItem());
+            Object referent = handle != null ? handle : key.getItem();
+            Reference<?> current = item.getItemReference();
+            if (current instanceof StackReference && ((StackReference) current).isFor(referent, key)) {
+                return; // Already bound to this native stack - most hits are for mirrors of the stack last seen
+            }
+            item.setItemReference(new StackReference(referent, this.collected, key, item));
+        } else {
+            item.setItem(key.getItem());
+        }
+    }
+
+    /**
+     * @param key
+     * @return The cached item for the key, or null if it is not cached. Does not load or refresh the item.
+     */
+    public synchronized CraftyItem getIfPresent(CacheKey key) {
+        return this.index.get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * Moves the cached item for the key, if present, to an owner's partition. Does not load the item.
+     * @param key
+     * @param owner The owner key as given by {@link CachePartitions#getOwner(org.bukkit.inventory.InventoryHolder)}
+     */
+    public synchronized void assign(CacheKey key, Object owner) {
+        long most = key.getMostSignificantBits();
+        long least = key.getLeastSignificantBits();
+        if (this.index.get(most, least) != null) {
+            this.index.setPartition(most, least, this.partitions.getId(owner));
+        }
+    }
+
+    /**
+     * Saves the cached item for the key, if present, and evicts it from cache
+     * @param key
+     */
+    public void invalidate(CacheKey key) {
+        CraftyItem removed;
+        synchronized (this) {
+            removed = this.index.remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+        }
+        if (removed != null) {
+            removed.updateItem();
+        }
+    }
+
+    /**
+     * Evicts the cached item for the key without saving it, for use when its stack no longer exists
+     * @param key
+     */
+    public synchronized void discard(CacheKey key) {
+        this.index.remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * Saves the cached item for the key, if present, keeping it cached
+     * @param key
+     */
+    public void flush(CacheKey key) {
+        CraftyItem item = this.getIfPresent(key);
+        if (item != null) {
+            item.updateItem();
+        }
+    }
+
+    /**
+     * Points the cached item for the key, if present, at the key's stack
+     * @param key
+     * @return False if the item is not cached
+     */
+    public synchronized boolean rebind(CacheKey key) {
+        CraftyItem item = this.index.get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+        if (item == null) {
+            return false;
+        }
+        this.bind(item, key);
+        return true;
+    }
+
+    /**
+     * Refreshes the last access time of a cached item, loading it if it is not present
+     * @param key
+     */
+    public synchronized void refresh(CacheKey key) {
+        if (!this.index.touch(key.getMostSignificantBits(), key.getLeastSignificantBits(),
+                System.currentTimeMillis())) {
+            this.get(key);
+        }
+    }
+
+    /**
+     * Re-renders the lore of every cached item whose lore layout differs between two configurations,
+     * leaving all other items untouched
+     * @param previous The configuration the cached items were rendered with
+     * @param current The configuration now in effect
+     * @return The number of items whose lore was re-rendered
+     */
+    public int reorder(ConfigSnapshot previous, ConfigSnapshot current) {
+        List<CraftyItem> cached = new ArrayList<CraftyItem>();
+        synchronized (this) {
+            this.index.values(cached);
+        }
+        int updated = 0;
+        for (CraftyItem item : cached) {
+            if (current.isOrderChanged(previous, item.getModules().keySet())) {
+                item.updateLore();
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * @return The number of cached items
+     */
+    public synchronized int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Evicts all items that have not been accessed within the expiry period, saving each
+     */
+    public void expire() {
+        if (this.weakBinding) {
+            this.drainCollected();
+        }
+        List<CraftyItem> expired = new ArrayList<CraftyItem>();
+        synchronized (this) {
+            this.index.expire(System.currentTimeMillis() - EXPIRE_AFTER_ACCESS, expired);
+            this.partitions.releaseEmpty(this.index);
+        }
+        for (CraftyItem item : expired) {
+            item.updateItem();
+        }
+    }
+
+    /**
+     * Evicts every item in an owner's partition in one pass, then saves them as a batch
+     * @param owner The owner key as given by {@link CachePartitions#getOwner(org.bukkit.inventory.InventoryHolder)}
+     */
+    public void flushPartition(Object owner) {
+        List<CraftyItem> removed = new ArrayList<CraftyItem>();
+        synchronized (this) {
+            int partition = this.partitions.lookup(owner);
+            if (partition == -1) {
+                return;
+            }
+            this.index.removePartition(partition, removed);
+            this.partitions.release(owner);
+        }
+        for (CraftyItem item : removed) {
+            item.updateItem();
+        }
+    }
+
+    /**
+     * Evicts the partitions of all block containers within a chunk, then saves their items as a batch
+     * @param chunk
+     */
+    public void flushChunk(Chunk chunk) {
+        List<CraftyItem> removed = new ArrayList<CraftyItem>();
+        synchronized (this) {
+            List<Object> owners = new ArrayList<Object>();
+            this.partitions.getOwnersInChunk(chunk.getWorld(), chunk.getX(), chunk.getZ(), owners);
+            for (Object owner : owners) {
+                this.index.removePartition(this.partitions.lookup(owner), removed);
+                this.partitions.release(owner);
+            }
+        }
+        for (CraftyItem item : removed) {
+            item.updateItem();
+        }
+    }
+
+    /**
+     * Collects every item in an owner's partition, leaving them cached
+     * @param owner The owner key as given by {@link CachePartitions#getOwner(org.bukkit.inventory.InventoryHolder)}
+     * @param items List to which the cached items are added
+     */
+    public synchronized void getPartition(Object owner, List<CraftyItem> items) {
+        int partition = this.partitions.lookup(owner);
+        if (partition != -1) {
+            this.index.values(partition, items);
+        }
+    }
+
+    /**
+     * @param owner
+     * @return The number of cached items in an owner's partition
+     */
+    public synchronized int partitionSize(Object owner) {
+        int partition = this.partitions.lookup(owner);
+        return partition == -1 ? 0 : this.index.partitionSize(partition);
+    }
+
+    /**
+     * Evicts and saves every cached item, first capturing snapshots of the most accessed ones
+     * @param maxSnapshots The maximum number of snapshots to capture
+     * @param snapshots List to which the snapshots are added, hottest first
+     */
+    public void shutdown(int maxSnapshots, List<ItemSnapshot> snapshots) {
+        List<CraftyItem> items = new ArrayList<CraftyItem>();
+        final int[] hits;
+        synchronized (this) {
+            hits = this.index.valuesWithHits(items);
+            this.index.clear(new ArrayList<CraftyItem>());
+        }
+        Integer[] byHits = new Integer[items.size()];
+        for (int i = 0; i < byHits.length; i++) {
+            byHits[i] = i;
+        }
+        Arrays.sort(byHits, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return hits[b] < hits[a] ? -1 : (hits[b] == hits[a] ? 0 : 1);
+            }
+        });
+        long stamp = this.plugin.getConfigurationManager().getSnapshot().getSchemaStamp();
+        for (int i = 0; i < byHits.length && snapshots.size() < maxSnapshots; i++) {
+            CraftyItem item = items.get(byHits[i]);
+            if (item.getItem() == null) {
+                continue; // Weakly bound stack is gone, there is nothing to restore onto
+            }
+            ItemSnapshot snapshot = item.snapshot(stamp);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        for (CraftyItem item : items) {
+            item.updateItem();
+        }
+    }
+
+    /**
+     * Evicts items whose weakly bound native stacks have been garbage collected. There is no stack left to
+     * save to at this point, so the item is discarded - a warning is logged if it had changes that were
+     * never written, as that indicates a missing {@link CraftyItem#updateItem()} call
+     */
+    public synchronized void drainCollected() {
+        Reference<?> ref;
+        while ((ref = this.collected.poll()) != null) {
+            StackReference stackRef = (StackReference) ref;
+            CraftyItem owner = stackRef.owner;
+            // The entry may since have been replaced or rebound to a live stack
+            if (this.index.get(stackRef.mostSigBits, stackRef.leastSigBits) != owner || owner.getItem() != null) {
+                continue;
+            }
+            this.index.remove(stackRef.mostSigBits, stackRef.leastSigBits);
+            if (owner.hasUnsavedChanges()) {
+                this.plugin.getLogger().log(Level.WARNING, "Discarding unsaved module changes for item "
+                        + owner.getItemTrackerId() + " as its ItemStack no longer exists");
+            }
+        }
     }
 }
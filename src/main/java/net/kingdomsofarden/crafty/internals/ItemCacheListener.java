@@ -0,0 +1,73 @@
+package net.kingdomsofarden.crafty.internals;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.enchantment.EnchantItemEvent;
+import org.bukkit.event.entity.ItemDespawnEvent;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.event.inventory.CraftItemEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.inventory.AnvilInventory;
+
+/**
+ * Keeps the {@link ItemCache} in step with stack changes that happen outside of Crafty, flushing,
+ * rebinding or evicting affected items as the events occur rather than waiting for expiry.
+ * Registered when cache.event-invalidation is enabled.
+ */
+public class ItemCacheListener implements Listener {
+
+    private static final int ANVIL_RESULT_SLOT = 2;
+
+    private final ItemCache cache;
+
+    public ItemCacheListener(ItemCache cache) {
+        this.cache = cache;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemDespawn(ItemDespawnEvent event) {
+        CacheKey key = NBTUtil.peekCacheKey(event.getEntity().getItemStack());
+        if (key != null) {
+            this.cache.discard(key);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemMerge(ItemMergeEvent event) {
+        // The merged stack lives on in the target entity
+        CacheKey key = NBTUtil.peekCacheKey(event.getTarget().getItemStack());
+        if (key != null) {
+            this.cache.rebind(key);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onCraftItem(CraftItemEvent event) {
+        // Crafted results are copies of the recipe result and may share its tracker
+        CacheKey key = NBTUtil.peekCacheKey(event.getCurrentItem());
+        if (key != null) {
+            this.cache.invalidate(key);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onAnvilResult(InventoryClickEvent event) {
+        if (!(event.getInventory() instanceof AnvilInventory) || event.getRawSlot() != ANVIL_RESULT_SLOT) {
+            return;
+        }
+        // The result is a modified copy of the input that carries the same tracker
+        CacheKey key = NBTUtil.peekCacheKey(event.getCurrentItem());
+        if (key != null) {
+            this.cache.invalidate(key);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEnchantItem(EnchantItemEvent event) {
+        CacheKey key = NBTUtil.peekCacheKey(event.getItem());
+        if (key != null) {
+            this.cache.flush(key);
+        }
+    }
+}
@@ -2,22 +2,54 @@ package net.kingdomsofarden.crafty.internals;
 
 import com.comphenix.attribute.AttributeStorage;
 import com.comphenix.attribute.Attributes;
+import com.comphenix.attribute.NbtFactory;
+import com.comphenix.attribute.NbtFactory.NbtCompound;
+import com.comphenix.attribute.NbtFactory.NbtList;
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+import net.kingdomsofarden.crafty.core.TrackerIdGenerator;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapter;
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapters;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 
+/**
+ * Reads and writes Crafty data in item NBT. Data is stored as strings keyed by UUID in the tag.Crafty
+ * compound. Items saved by older versions stored the same entries as zero-amount attribute modifiers
+ * in tag.AttributeModifiers - these are still read, and moved to the compound by {@link #migrateLegacyData}.
+ */
 public class NBTUtil {
     
-    private static final UUID ITEM_TRACKER;
+    private static final String CRAFTY_COMPOUND = "Crafty";
+    private static final String ATTRIBUTE_MODIFIERS = "AttributeModifiers";
+    private static final String DISPLAY = "display";
+    private static final String LORE = "Lore";
     
-    static {
-        ITEM_TRACKER = UUID.fromString("198d8160-c487-11e3-9c1a-0800200c9a66");
+    private static final UUID ITEM_TRACKER = ItemStorageFormat.ITEM_TRACKER;
+    private static final long ITEM_TRACKER_MOST = ItemStorageFormat.ITEM_TRACKER_MOST;
+    private static final long ITEM_TRACKER_LEAST = ItemStorageFormat.ITEM_TRACKER_LEAST;
+    private static final String ITEM_TRACKER_KEY = ITEM_TRACKER.toString();
+    
+    private static volatile TrackerIdGenerator trackerIds = TrackerIdGenerator.random();
+    
+    /**
+     * Internal utility method for configuring how new tracker ids are generated - do not use
+     * @param generator
+     */
+    public static void setTrackerIdGenerator(TrackerIdGenerator generator) {
+        trackerIds = generator;
     }
     
     /**
+     * Gets the CacheKey of an item, writing a new tracker to the item if it is untracked. Use
+     * {@link #peekCacheKey(ItemStack)} for reads.
      * @param item
      * @return CacheKey representation used to look up the item in cache
      */
@@ -25,17 +57,32 @@ public class NBTUtil {
         if (item.getType().equals(Material.AIR)) {
             throw new IllegalArgumentException("Cannot get crafty items from AIR");
         }
-        AttributeStorage storage = AttributeStorage.newTarget(item, ITEM_TRACKER);
-        if (storage.getData(null) != null) {
-            return new CacheKey(item, UUID.fromString(storage.getData(null)));
+        CacheKey key = peekCacheKey(item);
+        if (key != null) {
+            return key;
         } else {
-            UUID id = UUID.randomUUID();
-            storage.setData(id.toString());
-            item = storage.getTarget();
+            UUID id = trackerIds.next();
+            writeData(ITEM_TRACKER, id.toString(), item);
             return new CacheKey(item, id);
         }
     }
     
+    /**
+     * Gets the CacheKey of an item without assigning a tracker to untracked items
+     * @param item
+     * @return CacheKey representation used to look up the item in cache, or null if the item is not tracked
+     */
+    public static CacheKey peekCacheKey(ItemStack item) {
+        if (item == null || item.getType().equals(Material.AIR)) {
+            return null;
+        }
+        String tracker = findData(item, ITEM_TRACKER_MOST, ITEM_TRACKER_LEAST);
+        if (tracker == null) {
+            return null;
+        }
+        return new CacheKey(item, ItemStorageFormat.parseMostBits(tracker), ItemStorageFormat.parseLeastBits(tracker));
+    }
+    
     /**
      * Gets the Item Tracker ID if present
      * @param item
@@ -45,12 +92,11 @@ public class NBTUtil {
         if (item.getType().equals(Material.AIR)) {
             return null;
         }
-        AttributeStorage storage = AttributeStorage.newTarget(item,ITEM_TRACKER);
-        if (storage.getData(null) != null) {
-            return UUID.fromString(storage.getData(null));
-        } else {
+        String tracker = findData(item, ITEM_TRACKER_MOST, ITEM_TRACKER_LEAST);
+        if (tracker == null) {
             return null;
         }
+        return new UUID(ItemStorageFormat.parseMostBits(tracker), ItemStorageFormat.parseLeastBits(tracker));
     }
 
 
@@ -59,8 +105,7 @@ public class NBTUtil {
         if (item.getType().equals(Material.AIR)) {
             return false;
         }
-        AttributeStorage storage = AttributeStorage.newTarget(item, id);
-        return storage.hasData();
+        return findData(item, id.getMostSignificantBits(), id.getLeastSignificantBits()) != null;
     }
 
     /**
@@ -73,8 +118,21 @@ public class NBTUtil {
         if (item.getType().equals(Material.AIR)) {
             return null;
         }
-        AttributeStorage storage = AttributeStorage.newTarget(item, id);
-        return storage.getData(null);
+        return findData(item, id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+    
+    /**
+     * Gets data stored under a specific id, given as its two halves
+     * @param most
+     * @param least
+     * @param item
+     * @return String representation of data, or null if no data
+     */
+    public static String getData(long most, long least, ItemStack item) {
+        if (item.getType().equals(Material.AIR)) {
+            return null;
+        }
+        return findData(item, most, least);
     }
     
     /**
@@ -90,11 +148,156 @@ public class NBTUtil {
         if (item.getType().equals(Material.AIR)) {
             throw new IllegalArgumentException("Data cannot be stored to AIR");
         }
-        AttributeStorage storage = AttributeStorage.newTarget(item, id);
-        storage.setData(data);
-        if (storage.getTarget() != item) {
+        NmsAdapter nms = NmsAdapters.get();
+        if (!nms.isCraftItemStack(item)) {
             throw new IllegalArgumentException("Item target changed during NBT Write - Are you sure you wrote to a Crafty Item?");
         }
+        nms.setString(nms.getOrCreateCompound(nms.getOrCreateTag(item), CRAFTY_COMPOUND), id.toString(), data);
+    }
+    
+    /**
+     * Internal utility method for removing stored data - do not use
+     * @param id
+     * @param item
+     * @return Whether data was stored under the id
+     */
+    public static boolean removeData(UUID id, ItemStack item) {
+        NmsAdapter nms = NmsAdapters.get();
+        if (item.getType().equals(Material.AIR) || !nms.isCraftItemStack(item)) {
+            return false;
+        }
+        Object tag = nms.getTag(item);
+        Object crafty = tag == null ? null : nms.getCompoundMap(tag).get(CRAFTY_COMPOUND);
+        return crafty != null && nms.remove(crafty, id.toString());
+    }
+    
+    /**
+     * Internal utility method for writing item lore - do not use<br>
+     * <br>
+     * Writes display.Lore directly rather than round-tripping a cloned ItemMeta, and leaves the item
+     * untouched if it already has the given lore. As with {@link org.bukkit.inventory.meta.ItemMeta#setLore(List)},
+     * null or empty lore removes the lore from the item.
+     * @param lore
+     * @param item
+     * @return Whether the item was modified
+     */
+    public static boolean writeLore(List<String> lore, ItemStack item) {
+        if (item.getType().equals(Material.AIR)) {
+            throw new IllegalArgumentException("Lore cannot be stored to AIR");
+        }
+        NmsAdapter nms = NmsAdapters.get();
+        if (!nms.isCraftItemStack(item)) {
+            throw new IllegalArgumentException("Item target changed during NBT Write - Are you sure you wrote to a Crafty Item?");
+        }
+        boolean clear = lore == null || lore.isEmpty();
+        Object tag = nms.getTag(item);
+        if (tag == null && clear) {
+            return false;
+        }
+        Object display = tag == null ? null : nms.getCompoundMap(tag).get(DISPLAY);
+        Object current = display == null ? null : nms.getCompoundMap(display).get(LORE);
+        if (clear) {
+            if (current == null) {
+                return false;
+            }
+            nms.remove(display, LORE);
+            if (nms.getCompoundMap(display).isEmpty()) {
+                nms.remove(tag, DISPLAY);
+            }
+            return true;
+        }
+        if (current != null && isSameLore(nms, current, lore)) {
+            return false;
+        }
+        nms.setStringList(nms.getOrCreateCompound(nms.getOrCreateTag(item), DISPLAY), LORE, lore);
+        return true;
+    }
+
+    private static boolean isSameLore(NmsAdapter nms, Object list, List<String> lore) {
+        List<Object> lines = nms.getListContents(list);
+        if (lines.size() != lore.size()) {
+            return false;
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lore.get(i).equals(nms.getString(lines.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Moves Crafty data stored as attribute modifiers by older versions into the Crafty compound. Entries
+     * are recognized by their UUID - the tracker and format keys, the modules in the item's module list
+     * and all registered modules. The modifier list is removed if nothing but Crafty data was in it.
+     * @param item
+     * @param registeredModules The ids of all registered modules
+     * @return Whether any data was moved
+     */
+    public static boolean migrateLegacyData(ItemStack item, Collection<UUID> registeredModules) {
+        if (item == null || item.getType().equals(Material.AIR) || !NmsAdapters.get().isCraftItemStack(item)
+                || NbtFactory.getItemTagHandle(item) == null) {
+            return false;
+        }
+        NbtCompound tag = NbtFactory.fromItemTag(item);
+        NbtList modifiers = tag.getList(ATTRIBUTE_MODIFIERS, false);
+        if (modifiers == null || modifiers.isEmpty()) {
+            return false;
+        }
+        Set<UUID> keys = new HashSet<UUID>(registeredModules);
+        keys.add(ITEM_TRACKER);
+        keys.add(ItemStorageFormat.MODULE_STORAGE_KEY);
+        keys.add(ItemStorageFormat.SCHEMA_KEY);
+        keys.add(ItemStorageFormat.FINGERPRINT_KEY);
+        String moduleList = findLegacyData(item, ItemStorageFormat.MODULE_STORAGE_MOST, ItemStorageFormat.MODULE_STORAGE_LEAST);
+        keys.addAll(ItemStorageFormat.decodeModuleList(moduleList, null));
+        NbtCompound crafty = null;
+        for (int i = modifiers.size() - 1; i >= 0; i--) {
+            Object entry = modifiers.get(i);
+            if (!(entry instanceof NbtCompound)) {
+                continue;
+            }
+            NbtCompound modifier = (NbtCompound) entry;
+            Long most = modifier.getLong("UUIDMost", null);
+            Long least = modifier.getLong("UUIDLeast", null);
+            String data = modifier.getString("Name", null);
+            if (most == null || least == null || data == null) {
+                continue;
+            }
+            UUID key = new UUID(most, least);
+            if (!keys.contains(key)) {
+                continue;
+            }
+            if (crafty == null) {
+                crafty = tag.getMap(CRAFTY_COMPOUND, true);
+            }
+            if (!crafty.containsKey(key.toString())) { // Data written since takes precedence
+                crafty.put(key.toString(), data);
+            }
+            modifiers.remove(i);
+        }
+        if (crafty == null) {
+            return false;
+        }
+        if (modifiers.isEmpty()) {
+            tag.remove(ATTRIBUTE_MODIFIERS);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the item has a Crafty compound, i.e. has been saved by this version, without
+     * constructing any wrappers
+     * @param item
+     * @return True if the item's tag contains the Crafty compound
+     */
+    public static boolean hasCraftyCompound(ItemStack item) {
+        NmsAdapter nms = NmsAdapters.get();
+        if (item == null || !nms.isCraftItemStack(item)) {
+            return false;
+        }
+        Object tag = nms.getTag(item);
+        return tag != null && nms.getCompoundMap(tag).containsKey(CRAFTY_COMPOUND);
     }
 
     /**
@@ -118,4 +321,70 @@ public class NBTUtil {
     public static boolean isTracked(ItemStack item) {
         return !item.getType().equals(Material.AIR) && hasData(item, ITEM_TRACKER);
     }
+
+    /**
+     * Looks up data in the Crafty compound, falling back to data stored by older versions. Stacks
+     * that are not backed by a native stack cannot carry Crafty data and are never copied to check
+     * @param item
+     * @param most Most significant bits of the storage key
+     * @param least Least significant bits of the storage key
+     * @return The data stored under the key, or null if none
+     */
+    private static String findData(ItemStack item, long most, long least) {
+        NmsAdapter nms = NmsAdapters.get();
+        if (!nms.isCraftItemStack(item)) {
+            return null;
+        }
+        Object tag = nms.getTag(item);
+        if (tag == null) {
+            return null;
+        }
+        Map<String, Object> tagMap = nms.getCompoundMap(tag);
+        Object crafty = tagMap.get(CRAFTY_COMPOUND);
+        if (crafty != null) {
+            String key = most == ITEM_TRACKER_MOST && least == ITEM_TRACKER_LEAST
+                    ? ITEM_TRACKER_KEY : new UUID(most, least).toString();
+            Object data = nms.getCompoundMap(crafty).get(key);
+            if (data != null) {
+                return nms.getString(data);
+            }
+        }
+        return tagMap.containsKey(ATTRIBUTE_MODIFIERS) ? findLegacyData(item, most, least) : null;
+    }
+
+    /**
+     * Fast path equivalent of {@link AttributeStorage#getData(String)} that walks the native
+     * AttributeModifiers list directly, comparing the stored UUID halves as primitives rather than
+     * constructing Attributes/Attribute wrappers and UUIDs for every entry
+     * @param item A CraftItemStack
+     * @param most Most significant bits of the storage key
+     * @param least Least significant bits of the storage key
+     * @return The data stored under the key, or null if none
+     */
+    private static String findLegacyData(ItemStack item, long most, long least) {
+        NmsAdapter nms = NmsAdapters.get();
+        Object tag = nms.getTag(item);
+        if (tag == null) {
+            return null;
+        }
+        Object modifiers = nms.getCompoundMap(tag).get(ATTRIBUTE_MODIFIERS);
+        if (modifiers == null) {
+            return null;
+        }
+        List<Object> entries = nms.getListContents(modifiers);
+        for (int i = 0; i < entries.size(); i++) {
+            Map<String, Object> entry = nms.getCompoundMap(entries.get(i));
+            Object entryLeast = entry.get("UUIDLeast");
+            if (entryLeast == null || nms.getLong(entryLeast) != least) {
+                continue;
+            }
+            Object entryMost = entry.get("UUIDMost");
+            if (entryMost == null || nms.getLong(entryMost) != most) {
+                continue;
+            }
+            Object name = entry.get("Name");
+            return name != null ? nms.getString(name) : null;
+        }
+        return null;
+    }
 }
@@ -0,0 +1,74 @@
+package net.kingdomsofarden.crafty.internals;
+
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+/**
+ * Files cached items under the {@link ItemCache} partition of the inventory holding them, and drops a
+ * partition in one batched save when its owner goes away - a player leaving, or the chunk of a block
+ * container unloading. Items are filed as inventories are closed, and a player's items again just before
+ * they are flushed, so that items looked up without a holder are covered as well.
+ */
+public class PartitionListener implements Listener {
+
+    private final ItemCache cache;
+
+    public PartitionListener(ItemCache cache) {
+        this.cache = cache;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        if (this.cache.size() == 0) {
+            return;
+        }
+        Inventory inventory = event.getInventory();
+        if (!(inventory instanceof PlayerInventory)) {
+            this.assign(inventory.getContents(), CachePartitions.getOwner(inventory.getHolder()));
+        }
+        this.assignPlayer(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        Player player = event.getPlayer();
+        this.assignPlayer(player);
+        this.cache.flushPartition(CachePartitions.getOwner(player));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        if (this.cache.size() == 0) {
+            return;
+        }
+        this.cache.flushChunk(event.getChunk());
+    }
+
+    private void assignPlayer(HumanEntity player) {
+        Object owner = CachePartitions.getOwner(player);
+        this.assign(player.getInventory().getContents(), owner);
+        this.assign(player.getInventory().getArmorContents(), owner);
+        this.assign(player.getEnderChest().getContents(), owner);
+    }
+
+    private void assign(ItemStack[] contents, Object owner) {
+        if (owner == null) {
+            return;
+        }
+        for (ItemStack item : contents) {
+            CacheKey key = NBTUtil.peekCacheKey(item);
+            if (key != null) {
+                this.cache.assign(key, owner);
+            }
+        }
+    }
+}
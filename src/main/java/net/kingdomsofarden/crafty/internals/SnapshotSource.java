@@ -0,0 +1,19 @@
+package net.kingdomsofarden.crafty.internals;
+
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+
+/**
+ * Supplies previously captured {@link ItemSnapshot}s to the {@link ItemCache}, which builds items from a
+ * snapshot instead of the item NBT wherever the snapshot still matches the item
+ */
+public interface SnapshotSource {
+
+    /**
+     * Removes the snapshot held for an item
+     * @param most
+     * @param least
+     * @return The snapshot, or null if none is held or it has expired
+     */
+    ItemSnapshot take(long most, long least);
+
+}
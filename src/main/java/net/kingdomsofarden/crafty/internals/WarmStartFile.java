@@ -0,0 +1,173 @@
+package net.kingdomsofarden.crafty.internals;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+
+/**
+ * Snapshots of the hottest cached items, written on disable and read back on the next enable so that
+ * items can be restored into the {@link ItemCache} without reading their NBT. The file is read into memory
+ * in one pass and closed, so that it can be replaced on the next disable. Only the record headers are
+ * parsed on open - each snapshot is decoded in place when its item is first loaded, and used only if the
+ * item's schema stamp and fingerprint still match it. Snapshots left unused after the cache expiry period
+ * are dropped.<br>
+ * <br>
+ * Layout: magic, version and record count, followed by records of a tracker id, the snapshot's fingerprint,
+ * a length and an encoded {@link ItemSnapshot}
+ */
+public class WarmStartFile implements SnapshotSource {
+
+    private static final int MAGIC = 0x43524654; // CRFT
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 28;
+    private static final int RECORD_FINGERPRINT = 16;
+    private static final int RECORD_LENGTH = 24;
+    private static final long TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(15);
+
+    private final Logger logger;
+    private final long opened;
+    private ByteBuffer buffer;
+    private Map<UUID, Integer> offsets;
+
+    private WarmStartFile(Logger logger, ByteBuffer buffer, Map<UUID, Integer> offsets) {
+        this.logger = logger;
+        this.opened = System.currentTimeMillis();
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Writes snapshots to a file, replacing any previous file
+     * @param file
+     * @param snapshots
+     * @throws IOException
+     */
+    public static void write(File file, List<ItemSnapshot> snapshots) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshots.size());
+            for (ItemSnapshot snapshot : snapshots) {
+                byte[] encoded = snapshot.toBytes();
+                out.writeLong(snapshot.getTrackerMostBits());
+                out.writeLong(snapshot.getTrackerLeastBits());
+                out.writeLong(snapshot.getFingerprint());
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            throw new IOException("Unable to replace " + file.getPath());
+        }
+    }
+
+    /**
+     * Reads a snapshot file and indexes its records
+     * @param file
+     * @param logger
+     * @return The opened file, or null if it does not exist or is unreadable
+     */
+    public static WarmStartFile open(File file, Logger logger) {
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try {
+            // Read rather than mapped - a live mapping would keep the file from being replaced on Windows
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() > Integer.MAX_VALUE) {
+                    throw new IOException("File is too large");
+                }
+                byte[] bytes = new byte[(int) raf.length()];
+                raf.readFully(bytes);
+                buffer = ByteBuffer.wrap(bytes);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to read warm start cache " + file.getPath(), e);
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.log(Level.WARNING, "Ignoring warm start cache " + file.getPath() + " from another version");
+                return null;
+            }
+            int count = buffer.getInt();
+            Map<UUID, Integer> offsets = new HashMap<UUID, Integer>();
+            int position = HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                UUID tracker = new UUID(buffer.getLong(position), buffer.getLong(position + 8));
+                int length = buffer.getInt(position + RECORD_LENGTH);
+                if (length < 0 || position + RECORD_HEADER_SIZE + length > buffer.limit()) {
+                    throw new BufferUnderflowException();
+                }
+                offsets.put(tracker, position);
+                position += RECORD_HEADER_SIZE + length;
+            }
+            return new WarmStartFile(logger, buffer, offsets);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            logger.log(Level.WARNING, "Ignoring truncated warm start cache " + file.getPath());
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of snapshots not yet taken
+     */
+    public synchronized int size() {
+        return this.offsets == null ? 0 : this.offsets.size();
+    }
+
+    @Override
+    public synchronized ItemSnapshot take(long most, long least) {
+        if (this.offsets == null) {
+            return null;
+        }
+        if (this.offsets.isEmpty() || this.opened < System.currentTimeMillis() - TIME_TO_LIVE) {
+            this.close();
+            return null;
+        }
+        Integer position = this.offsets.remove(new UUID(most, least));
+        if (position == null) {
+            return null;
+        }
+        ByteBuffer record = this.buffer.duplicate();
+        record.position(position + RECORD_HEADER_SIZE);
+        record.limit(position + RECORD_HEADER_SIZE + this.buffer.getInt(position + RECORD_LENGTH));
+        try {
+            return ItemSnapshot.read(record, this.buffer.getLong(position + RECORD_FINGERPRINT));
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Skipping corrupt warm start record for item " + new UUID(most, least));
+            return null;
+        }
+    }
+
+    /**
+     * Drops all remaining snapshots and releases the file contents
+     */
+    public synchronized void close() {
+        this.buffer = null;
+        this.offsets = null;
+    }
+}
@@ -0,0 +1,113 @@
+package net.kingdomsofarden.crafty.internals.nms;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Version specific access to the native item and NBT classes used to read and write Crafty data and lore.
+ * Migration of legacy attribute modifier data and vanilla attribute writes still go through NbtFactory.<br>
+ * <br>
+ * Implementations compiled against a specific server version are looked up by {@link NmsAdapters} as
+ * {@code net.kingdomsofarden.crafty.internals.nms.<version>.NmsAdapterImpl} (e.g. {@code v1_8_R3}), and
+ * must have a public no-argument constructor. When none matches the running server,
+ * {@link ReflectiveNmsAdapter} is used.
+ */
+public interface NmsAdapter {
+
+    /**
+     * @return The server version this adapter was built for, or "reflective"
+     */
+    String getVersion();
+
+    /**
+     * @param stack
+     * @return Whether the stack is backed by a native item stack
+     */
+    boolean isCraftItemStack(ItemStack stack);
+
+    /**
+     * @param stack
+     * @return A natively backed copy of the stack
+     */
+    ItemStack asCraftCopy(ItemStack stack);
+
+    /**
+     * @param stack
+     * @return The native item stack backing the stack, or null if the stack is not natively backed. Bukkit
+     * stacks mirroring the same native stack return the same handle.
+     */
+    Object getHandle(ItemStack stack);
+
+    /**
+     * @param handle A native item stack as returned by {@link #getHandle(ItemStack)}
+     * @return A new Bukkit stack that reads and writes through to the native stack
+     */
+    ItemStack asMirror(Object handle);
+
+    /**
+     * @param stack A natively backed stack
+     * @return The native tag compound of the stack, or null if it has none
+     */
+    Object getTag(ItemStack stack);
+
+    /**
+     * @param compound A native NBT compound
+     * @return The backing map of the compound, values being native NBT tags. Must not be modified.
+     */
+    Map<String, Object> getCompoundMap(Object compound);
+
+    /**
+     * @param list A native NBT list
+     * @return The backing list, elements being native NBT tags. Must not be modified.
+     */
+    List<Object> getListContents(Object list);
+
+    /**
+     * @param nbtLong A native NBT long
+     * @return Its value
+     */
+    long getLong(Object nbtLong);
+
+    /**
+     * @param nbtString A native NBT string
+     * @return Its value
+     */
+    String getString(Object nbtString);
+
+    /**
+     * @param stack A natively backed stack
+     * @return The native tag compound of the stack, set to a new empty compound first if it has none
+     */
+    Object getOrCreateTag(ItemStack stack);
+
+    /**
+     * @param compound A native NBT compound
+     * @param key
+     * @return The compound stored under the key, set to a new empty compound first if there is none
+     */
+    Object getOrCreateCompound(Object compound, String key);
+
+    /**
+     * @param compound A native NBT compound
+     * @param key
+     * @param value
+     */
+    void setString(Object compound, String key, String value);
+
+    /**
+     * @param compound A native NBT compound
+     * @param key
+     * @param values
+     */
+    void setStringList(Object compound, String key, List<String> values);
+
+    /**
+     * @param compound A native NBT compound
+     * @param key
+     * @return Whether an entry was stored under the key
+     */
+    boolean remove(Object compound, String key);
+
+}
@@ -0,0 +1,62 @@
+package net.kingdomsofarden.crafty.internals.nms;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Selects the {@link NmsAdapter} for the running server
+ */
+public final class NmsAdapters {
+
+    private static final String IMPLEMENTATION_CLASS = "NmsAdapterImpl";
+
+    private static volatile NmsAdapter adapter;
+
+    private NmsAdapters() {}
+
+    /**
+     * Selects the adapter for the running server version, falling back to the reflective adapter if no
+     * compiled adapter for the version is present (see the nms profiles of the build) or the version cannot
+     * be detected. Called once on plugin enable.
+     * @param logger Logger to report the selection to
+     * @return The selected adapter
+     */
+    public static synchronized NmsAdapter load(Logger logger) {
+        String version;
+        try {
+            version = NmsVersion.getVersion();
+        } catch (IllegalStateException e) {
+            logger.log(Level.WARNING, e.getMessage() + ", item data may be unavailable");
+            version = null;
+        }
+        NmsAdapter selected = null;
+        if (version != null) {
+            String className = NmsAdapters.class.getPackage().getName() + "." + version + "." + IMPLEMENTATION_CLASS;
+            try {
+                selected = (NmsAdapter) Class.forName(className).newInstance();
+            } catch (ClassNotFoundException e) {
+                // No compiled adapter for this version
+            } catch (Exception | LinkageError e) {
+                logger.log(Level.WARNING, "Failed to load NMS adapter " + className + ", falling back to reflection", e);
+            }
+        }
+        if (selected == null) {
+            selected = new ReflectiveNmsAdapter();
+        }
+        logger.log(Level.INFO, "Using " + selected.getVersion() + " NMS adapter for server version " + version);
+        adapter = selected;
+        return selected;
+    }
+
+    /**
+     * @return The selected adapter, or the reflective adapter if none has been selected yet
+     */
+    public static NmsAdapter get() {
+        NmsAdapter current = adapter;
+        if (current == null) {
+            current = new ReflectiveNmsAdapter();
+            adapter = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,35 @@
+package net.kingdomsofarden.crafty.internals.nms;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+/**
+ * Detects the CraftBukkit package and version of the running server
+ */
+public final class NmsVersion {
+
+    private NmsVersion() {}
+
+    /**
+     * @return The CraftBukkit package of the running server, e.g. org.bukkit.craftbukkit.v1_8_R3
+     * @throws IllegalStateException If the server is not CraftBukkit based
+     */
+    public static String getCraftBukkitPackage() {
+        Server server = Bukkit.getServer();
+        String name = server != null ? server.getClass().getPackage().getName() : null;
+        if (name == null || !name.contains("craftbukkit")) {
+            throw new IllegalStateException("Crafty requires a CraftBukkit based server, found "
+                    + (server != null ? server.getClass().getName() : "no server"));
+        }
+        return name;
+    }
+
+    /**
+     * @return The version suffix of the CraftBukkit package, e.g. v1_8_R3, or null if the package is not versioned
+     */
+    public static String getVersion() {
+        String name = getCraftBukkitPackage();
+        String version = name.substring(name.lastIndexOf('.') + 1);
+        return version.startsWith("v") ? version : null;
+    }
+}
@@ -0,0 +1,109 @@
+package net.kingdomsofarden.crafty.internals.nms;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.Map;
+
+import com.comphenix.attribute.NbtFactory;
+import com.comphenix.attribute.NbtFactory.NbtCompound;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Fallback {@link NmsAdapter} that discovers the native classes at runtime through {@link NbtFactory}
+ */
+public class ReflectiveNmsAdapter implements NmsAdapter {
+
+    private Constructor<?> craftItemStackCtor;
+
+    @Override
+    public String getVersion() {
+        return "reflective";
+    }
+
+    @Override
+    public boolean isCraftItemStack(ItemStack stack) {
+        return NbtFactory.isCraftItemStack(stack);
+    }
+
+    @Override
+    public ItemStack asCraftCopy(ItemStack stack) {
+        try {
+            if (this.craftItemStackCtor == null) {
+                Class<?> craftItemStack = Class.forName(NmsVersion.getCraftBukkitPackage() + ".inventory.CraftItemStack");
+                Constructor<?> ctor = craftItemStack.getDeclaredConstructor(ItemStack.class);
+                ctor.setAccessible(true);
+                this.craftItemStackCtor = ctor;
+            }
+            return (ItemStack) this.craftItemStackCtor.newInstance(stack);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to convert " + stack + " to a CraftItemStack", e);
+        }
+    }
+
+    @Override
+    public Object getHandle(ItemStack stack) {
+        return NbtFactory.getItemHandle(stack);
+    }
+
+    @Override
+    public ItemStack asMirror(Object handle) {
+        return NbtFactory.getCraftMirror(handle);
+    }
+
+    @Override
+    public Object getTag(ItemStack stack) {
+        return NbtFactory.getItemTagHandle(stack);
+    }
+
+    @Override
+    public Map<String, Object> getCompoundMap(Object compound) {
+        return NbtFactory.getNativeMap(compound);
+    }
+
+    @Override
+    public List<Object> getListContents(Object list) {
+        return NbtFactory.getNativeList(list);
+    }
+
+    @Override
+    public long getLong(Object nbtLong) {
+        return NbtFactory.getNativeLong(nbtLong);
+    }
+
+    @Override
+    public String getString(Object nbtString) {
+        return NbtFactory.getNativeString(nbtString);
+    }
+
+    @Override
+    public Object getOrCreateTag(ItemStack stack) {
+        Object tag = NbtFactory.getItemTagHandle(stack);
+        if (tag == null) {
+            NbtCompound created = NbtFactory.createCompound();
+            NbtFactory.setItemTag(stack, created);
+            tag = created.getHandle();
+        }
+        return tag;
+    }
+
+    @Override
+    public Object getOrCreateCompound(Object compound, String key) {
+        return NbtFactory.fromCompound(compound).getMap(key, true).getHandle();
+    }
+
+    @Override
+    public void setString(Object compound, String key, String value) {
+        NbtFactory.fromCompound(compound).put(key, value);
+    }
+
+    @Override
+    public void setStringList(Object compound, String key, List<String> values) {
+        NbtFactory.fromCompound(compound).put(key, NbtFactory.createList(values));
+    }
+
+    @Override
+    public boolean remove(Object compound, String key) {
+        return NbtFactory.getNativeMap(compound).remove(key) != null;
+    }
+}
@@ -0,0 +1,96 @@
+package net.kingdomsofarden.crafty.internals.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import net.kingdomsofarden.crafty.Crafty;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+/**
+ * Publishes messages to every other server on a BungeeCord network through the BungeeCord plugin
+ * channel's Forward subchannel. Plugin messages travel over a player connection, so publishing
+ * fails while no player is online, and BungeeCord only forwards to servers with players online.
+ */
+public class BungeeTransport implements SyncTransport, PluginMessageListener {
+
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "Crafty";
+    // Plugin messages are capped at 32766 bytes, less the Forward header
+    private static final int MAX_MESSAGE_SIZE = 32000;
+
+    private final Crafty plugin;
+    private volatile Receiver receiver;
+
+    public BungeeTransport(Crafty plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+        return MAX_MESSAGE_SIZE;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        this.plugin.getServer().getMessenger().registerOutgoingPluginChannel(this.plugin, CHANNEL);
+        this.plugin.getServer().getMessenger().registerIncomingPluginChannel(this.plugin, CHANNEL, this);
+    }
+
+    @Override
+    public boolean publish(byte[] message) {
+        if (message.length > MAX_MESSAGE_SIZE) {
+            return false;
+        }
+        Iterator<? extends Player> online = this.plugin.getServer().getOnlinePlayers().iterator();
+        if (!online.hasNext()) {
+            return false;
+        }
+        Player carrier = online.next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(message.length);
+            out.write(message);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by in-memory streams
+        }
+        carrier.sendPluginMessage(this.plugin, CHANNEL, bytes.toByteArray());
+        return true;
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        Receiver current = this.receiver;
+        if (current == null || !CHANNEL.equals(channel)) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        try {
+            if (!SUBCHANNEL.equals(in.readUTF())) {
+                return;
+            }
+            byte[] data = new byte[in.readUnsignedShort()];
+            in.readFully(data);
+            current.receive(data);
+        } catch (IOException e) {
+            // Not a Crafty message
+        }
+    }
+
+    @Override
+    public void stop() {
+        this.receiver = null;
+        this.plugin.getServer().getMessenger().unregisterIncomingPluginChannel(this.plugin, CHANNEL, this);
+        this.plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(this.plugin, CHANNEL);
+    }
+}
@@ -0,0 +1,234 @@
+package net.kingdomsofarden.crafty.internals.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import net.kingdomsofarden.crafty.Crafty;
+import net.kingdomsofarden.crafty.api.CraftyItem;
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+import net.kingdomsofarden.crafty.internals.CacheKey;
+import net.kingdomsofarden.crafty.internals.CachePartitions;
+import net.kingdomsofarden.crafty.internals.ItemCache;
+import net.kingdomsofarden.crafty.internals.NBTUtil;
+import net.kingdomsofarden.crafty.internals.SnapshotSource;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Replicates the cached items of departing players to the other servers of a network, so that the
+ * server a player moves to can build their {@link CraftyItem}s from the received snapshots rather than
+ * from the item NBT. Snapshots are held until first use or until they expire, and are only used if the
+ * item they describe still carries the same schema stamp and module list.<br>
+ * <br>
+ * Registered when sync.enabled is set
+ */
+public class ItemSyncManager implements Listener, SyncTransport.Receiver, SnapshotSource {
+
+    public class SnapshotExpiryTask implements Runnable {
+
+        @Override
+        public void run() {
+            expire();
+        }
+
+    }
+
+    private static class PendingSnapshot {
+
+        private final ItemSnapshot snapshot;
+        private final long received;
+
+        public PendingSnapshot(ItemSnapshot snapshot, long received) {
+            this.snapshot = snapshot;
+            this.received = received;
+        }
+
+    }
+
+    private final Crafty plugin;
+    private final ItemCache cache;
+    private final long timeToLive;
+    private final Map<UUID, PendingSnapshot> pending;
+    private SyncTransport transport;
+
+    public ItemSyncManager(Crafty plugin, ItemCache cache, SyncTransport transport, int timeToLiveSeconds) {
+        this.plugin = plugin;
+        this.cache = cache;
+        this.timeToLive = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+        this.pending = new HashMap<UUID, PendingSnapshot>();
+        this.transport = transport;
+        this.transport.start(this);
+        long period = Math.max(20, timeToLiveSeconds * 20L);
+        this.plugin.getServer().getScheduler().runTaskTimer(this.plugin, new SnapshotExpiryTask(), period, period);
+    }
+
+    /**
+     * Replaces the transport, e.g. with one backed by a message broker
+     * @param transport
+     */
+    public synchronized void setTransport(SyncTransport transport) {
+        this.transport.stop();
+        this.transport = transport;
+        this.transport.start(this);
+    }
+
+    public synchronized void stop() {
+        this.transport.stop();
+        this.pending.clear();
+    }
+
+    @Override
+    public void receive(byte[] message) {
+        List<ItemSnapshot> snapshots;
+        try {
+            snapshots = ItemSnapshot.decode(message);
+        } catch (IOException e) {
+            this.plugin.getLogger().log(Level.WARNING, "Dropping malformed item sync message", e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (ItemSnapshot snapshot : snapshots) {
+                this.pending.put(new UUID(snapshot.getTrackerMostBits(), snapshot.getTrackerLeastBits()),
+                        new PendingSnapshot(snapshot, now));
+            }
+        }
+    }
+
+    @Override
+    public synchronized ItemSnapshot take(long most, long least) {
+        if (this.pending.isEmpty()) {
+            return null;
+        }
+        PendingSnapshot snapshot = this.pending.remove(new UUID(most, least));
+        if (snapshot == null || snapshot.received < System.currentTimeMillis() - this.timeToLive) {
+            return null;
+        }
+        return snapshot.snapshot;
+    }
+
+    private synchronized boolean isPending(CacheKey key) {
+        return this.pending.containsKey(key.getItemUuid());
+    }
+
+    /**
+     * Drops all snapshots that were not used within their time to live
+     */
+    public synchronized void expire() {
+        long cutoff = System.currentTimeMillis() - this.timeToLive;
+        Iterator<PendingSnapshot> it = this.pending.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().received < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        // Runs ahead of the partition flush so the player's items are still cached
+        Player player = event.getPlayer();
+        Set<CraftyItem> items = new LinkedHashSet<CraftyItem>(); // Stacks sharing a content id share one item
+        this.collect(player.getInventory().getContents(), items);
+        this.collect(player.getInventory().getArmorContents(), items);
+        this.collect(player.getEnderChest().getContents(), items);
+        if (items.isEmpty()) {
+            return;
+        }
+        long stamp = this.plugin.getConfigurationManager().getSnapshot().getSchemaStamp();
+        final List<ItemSnapshot> snapshots = new ArrayList<ItemSnapshot>(items.size());
+        for (CraftyItem item : items) {
+            ItemSnapshot snapshot = item.snapshot(stamp);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        // The departing player cannot carry messages, publish once they are gone
+        this.plugin.getServer().getScheduler().runTask(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                publish(snapshots);
+            }
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        Object owner = CachePartitions.getOwner(player);
+        this.preload(player.getInventory().getContents(), owner);
+        this.preload(player.getInventory().getArmorContents(), owner);
+        this.preload(player.getEnderChest().getContents(), owner);
+    }
+
+    private void collect(ItemStack[] contents, Set<CraftyItem> items) {
+        for (ItemStack item : contents) {
+            CacheKey key = NBTUtil.peekCacheKey(item);
+            if (key == null) {
+                continue;
+            }
+            CraftyItem cached = this.cache.getIfPresent(key);
+            if (cached != null) {
+                items.add(cached);
+            }
+        }
+    }
+
+    private void preload(ItemStack[] contents, Object owner) {
+        for (ItemStack item : contents) {
+            CacheKey key = NBTUtil.peekCacheKey(item);
+            if (key != null && this.isPending(key)) {
+                this.cache.get(key, owner);
+            }
+        }
+    }
+
+    private void publish(List<ItemSnapshot> snapshots) {
+        SyncTransport current;
+        synchronized (this) {
+            current = this.transport;
+        }
+        int limit = current.getMaxMessageSize();
+        List<ItemSnapshot> batch = new ArrayList<ItemSnapshot>();
+        int batchSize = ItemSnapshot.HEADER_SIZE;
+        for (ItemSnapshot snapshot : snapshots) {
+            int size = snapshot.getEncodedSize();
+            if (size + ItemSnapshot.HEADER_SIZE > limit) {
+                continue; // Too large to ever send, the destination falls back to the item NBT
+            }
+            if (batchSize + size > limit) {
+                this.send(current, batch);
+                batch.clear();
+                batchSize = ItemSnapshot.HEADER_SIZE;
+            }
+            batch.add(snapshot);
+            batchSize += size;
+        }
+        if (!batch.isEmpty()) {
+            this.send(current, batch);
+        }
+    }
+
+    private void send(SyncTransport transport, List<ItemSnapshot> batch) {
+        if (!transport.publish(ItemSnapshot.encode(batch))) {
+            // Nothing to retry with, the destination falls back to the item NBT
+            this.plugin.getLogger().log(Level.INFO, "Dropped item sync batch of " + batch.size()
+                    + " snapshots as the transport could not send it");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.kingdomsofarden.crafty.internals.sync;
+
+/**
+ * Delivers every published message straight back to this server's receiver. Stands in for a real
+ * transport on single servers and when testing sync.
+ */
+public class LoopbackTransport implements SyncTransport {
+
+    private volatile Receiver receiver;
+
+    @Override
+    public int getMaxMessageSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public boolean publish(byte[] message) {
+        Receiver current = this.receiver;
+        if (current == null) {
+            return false;
+        }
+        current.receive(message);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        this.receiver = null;
+    }
+}
@@ -0,0 +1,37 @@
+package net.kingdomsofarden.crafty.internals.sync;
+
+/**
+ * Carries encoded {@link net.kingdomsofarden.crafty.core.ItemSnapshot} messages between servers. Implementations
+ * are free to deliver messages on any thread, and to drop them - sync is an optimization, never a source of truth.
+ */
+public interface SyncTransport {
+
+    /**
+     * Receives messages published by other servers
+     */
+    interface Receiver {
+
+        void receive(byte[] message);
+
+    }
+
+    /**
+     * @return The largest message this transport can carry, in bytes
+     */
+    int getMaxMessageSize();
+
+    /**
+     * Starts delivering received messages to the receiver
+     * @param receiver
+     */
+    void start(Receiver receiver);
+
+    /**
+     * Publishes a message to all other servers
+     * @param message
+     * @return False if the message could not be sent
+     */
+    boolean publish(byte[] message);
+
+    void stop();
+}
@@ -0,0 +1,153 @@
+package net.kingdomsofarden.crafty.internals.nms.v1_8_R3;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+import net.kingdomsofarden.crafty.internals.nms.NmsAdapter;
+import net.minecraft.server.v1_8_R3.NBTBase;
+import net.minecraft.server.v1_8_R3.NBTTagCompound;
+import net.minecraft.server.v1_8_R3.NBTTagList;
+import net.minecraft.server.v1_8_R3.NBTTagString;
+
+import org.bukkit.craftbukkit.v1_8_R3.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * {@link NmsAdapter} compiled against CraftBukkit 1.8.8 (v1_8_R3). The stack handle and the backing
+ * collections of NBT compounds and lists are not exposed by the server, and are read through fields
+ * resolved once on construction.
+ */
+public class NmsAdapterImpl implements NmsAdapter {
+
+    private static final int COMPOUND_TYPE = 10;
+
+    private final Field craftHandle;
+    private final Field compoundMap;
+    private final Field listContents;
+
+    public NmsAdapterImpl() throws NoSuchFieldException {
+        this.craftHandle = accessible(CraftItemStack.class, "handle");
+        this.compoundMap = accessible(NBTTagCompound.class, "map");
+        this.listContents = accessible(NBTTagList.class, "list");
+    }
+
+    private static Field accessible(Class<?> clazz, String name) throws NoSuchFieldException {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    @Override
+    public String getVersion() {
+        return "v1_8_R3";
+    }
+
+    @Override
+    public boolean isCraftItemStack(ItemStack stack) {
+        return stack instanceof CraftItemStack;
+    }
+
+    @Override
+    public ItemStack asCraftCopy(ItemStack stack) {
+        return CraftItemStack.asCraftCopy(stack);
+    }
+
+    @Override
+    public Object getHandle(ItemStack stack) {
+        if (!(stack instanceof CraftItemStack)) {
+            return null;
+        }
+        try {
+            return this.craftHandle.get(stack);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public ItemStack asMirror(Object handle) {
+        return CraftItemStack.asCraftMirror((net.minecraft.server.v1_8_R3.ItemStack) handle);
+    }
+
+    @Override
+    public Object getTag(ItemStack stack) {
+        net.minecraft.server.v1_8_R3.ItemStack handle = (net.minecraft.server.v1_8_R3.ItemStack) this.getHandle(stack);
+        return handle != null ? handle.getTag() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String, Object> getCompoundMap(Object compound) {
+        try {
+            return (Map<String, Object>) this.compoundMap.get((NBTTagCompound) compound);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Object> getListContents(Object list) {
+        try {
+            return (List<Object>) this.listContents.get((NBTTagList) list);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long getLong(Object nbtLong) {
+        return ((NBTBase.NBTNumber) nbtLong).c();
+    }
+
+    @Override
+    public String getString(Object nbtString) {
+        return ((NBTTagString) nbtString).a_();
+    }
+
+    @Override
+    public Object getOrCreateTag(ItemStack stack) {
+        net.minecraft.server.v1_8_R3.ItemStack handle = (net.minecraft.server.v1_8_R3.ItemStack) this.getHandle(stack);
+        if (handle == null) {
+            throw new IllegalArgumentException(stack + " is not a CraftItemStack");
+        }
+        if (!handle.hasTag()) {
+            handle.setTag(new NBTTagCompound());
+        }
+        return handle.getTag();
+    }
+
+    @Override
+    public Object getOrCreateCompound(Object compound, String key) {
+        NBTTagCompound parent = (NBTTagCompound) compound;
+        if (!parent.hasKeyOfType(key, COMPOUND_TYPE)) {
+            parent.set(key, new NBTTagCompound()); // getCompound returns a detached compound for missing keys
+        }
+        return parent.getCompound(key);
+    }
+
+    @Override
+    public void setString(Object compound, String key, String value) {
+        ((NBTTagCompound) compound).setString(key, value);
+    }
+
+    @Override
+    public void setStringList(Object compound, String key, List<String> values) {
+        NBTTagList list = new NBTTagList();
+        for (String value : values) {
+            list.add(new NBTTagString(value));
+        }
+        ((NBTTagCompound) compound).set(key, list);
+    }
+
+    @Override
+    public boolean remove(Object compound, String key) {
+        NBTTagCompound parent = (NBTTagCompound) compound;
+        if (!parent.hasKey(key)) {
+            return false;
+        }
+        parent.remove(key);
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package net.kingdomsofarden.crafty.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class ItemStatsTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static class StatModule extends Module {
+
+        private int attributes;
+
+        StatModule with(VanillaAttribute attribute, AttributeOperation operation, double amount) {
+            this.setVanillaAttribute(new UUID(0, this.attributes++), "stat", attribute, operation, amount);
+            return this;
+        }
+
+        @Override
+        public List<String> getLoreSection() {
+            return null;
+        }
+
+        @Override
+        public String serialize() {
+            return null;
+        }
+    }
+
+    private static ItemStats compute(Module... modules) {
+        ItemStats stats = new ItemStats();
+        stats.compute(Arrays.<Module>asList(modules));
+        return stats;
+    }
+
+    @Test
+    public void testNoModifiers() {
+        ItemStats stats = compute();
+        for (VanillaAttribute attribute : VanillaAttribute.values()) {
+            assertEquals(20, stats.apply(attribute, 20), DELTA);
+            assertEquals(0, stats.get(attribute, AttributeOperation.ADD_NUMBER), DELTA);
+            assertEquals(0, stats.get(attribute, AttributeOperation.MULTIPLY_PERCENTAGE), DELTA);
+            assertEquals(1, stats.get(attribute, AttributeOperation.ADD_PERCENTAGE), DELTA);
+        }
+    }
+
+    @Test
+    public void testOperations() {
+        ItemStats stats = compute(
+                new StatModule()
+                        .with(VanillaAttribute.HEALTH, AttributeOperation.ADD_NUMBER, 4)
+                        .with(VanillaAttribute.HEALTH, AttributeOperation.MULTIPLY_PERCENTAGE, 0.5),
+                new StatModule()
+                        .with(VanillaAttribute.HEALTH, AttributeOperation.ADD_NUMBER, 6)
+                        .with(VanillaAttribute.HEALTH, AttributeOperation.MULTIPLY_PERCENTAGE, 0.25)
+                        .with(VanillaAttribute.HEALTH, AttributeOperation.ADD_PERCENTAGE, 0.1),
+                new StatModule()
+                        .with(VanillaAttribute.HEALTH, AttributeOperation.ADD_PERCENTAGE, 1));
+        assertEquals(10, stats.get(VanillaAttribute.HEALTH, AttributeOperation.ADD_NUMBER), DELTA);
+        assertEquals(0.75, stats.get(VanillaAttribute.HEALTH, AttributeOperation.MULTIPLY_PERCENTAGE), DELTA);
+        assertEquals(1.1 * 2, stats.get(VanillaAttribute.HEALTH, AttributeOperation.ADD_PERCENTAGE), DELTA);
+        // Vanilla order: adds onto the base, summed percentages once, then each multiplier in turn
+        assertEquals((20 + 10) * 1.75 * 1.1 * 2, stats.apply(VanillaAttribute.HEALTH, 20), DELTA);
+        // Other attributes are unaffected
+        assertEquals(0.1, stats.apply(VanillaAttribute.MOVEMENT_SPEED, 0.1), DELTA);
+    }
+
+    @Test
+    public void testAttributesSeparate() {
+        ItemStats stats = compute(new StatModule()
+                .with(VanillaAttribute.KNOCKBACK_RESISTANCE, AttributeOperation.ADD_NUMBER, 0.5)
+                .with(VanillaAttribute.MOVEMENT_SPEED, AttributeOperation.MULTIPLY_PERCENTAGE, 0.2));
+        assertEquals(0.5, stats.apply(VanillaAttribute.KNOCKBACK_RESISTANCE, 0), DELTA);
+        assertEquals(0.12, stats.apply(VanillaAttribute.MOVEMENT_SPEED, 0.1), DELTA);
+        assertEquals(20, stats.apply(VanillaAttribute.HEALTH, 20), DELTA);
+    }
+
+    @Test
+    public void testReplacedAttribute() {
+        // Setting an attribute again under the same identifier replaces it
+        StatModule module = new StatModule();
+        module.setVanillaAttribute(new UUID(1, 1), "stat", VanillaAttribute.HEALTH, AttributeOperation.ADD_NUMBER, 2);
+        module.setVanillaAttribute(new UUID(1, 1), "stat", VanillaAttribute.HEALTH, AttributeOperation.ADD_NUMBER, 5);
+        assertEquals(25, compute(module).apply(VanillaAttribute.HEALTH, 20), DELTA);
+    }
+
+    @Test
+    public void testRecompute() {
+        ItemStats stats = compute(new StatModule().with(VanillaAttribute.HEALTH, AttributeOperation.ADD_PERCENTAGE, 1));
+        stats.compute(Collections.<Module>emptyList());
+        assertEquals(20, stats.apply(VanillaAttribute.HEALTH, 20), DELTA);
+        assertEquals(VanillaAttribute.values().length * AttributeOperation.values().length, stats.toArray().length);
+    }
+}
@@ -0,0 +1,107 @@
+package net.kingdomsofarden.crafty.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.kingdomsofarden.crafty.Crafty;
+
+import org.bukkit.inventory.ItemStack;
+import org.junit.Test;
+
+public class ModuleRegistrarTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ModuleRegistrarTest.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.OFF); // Cycles are logged as errors
+    }
+
+    public static class TestModule extends Module {
+
+        public static Module deserialize(Crafty plugin, String data, ItemStack item) {
+            return new TestModule();
+        }
+
+        public static Module createNewModule(Crafty plugin, ItemStack item, Object... initArgs) {
+            return new TestModule();
+        }
+
+        @Override
+        public List<String> getLoreSection() {
+            return null;
+        }
+
+        @Override
+        public String serialize() {
+            return null;
+        }
+    }
+
+    private final List<ModuleFactory> modules = new ArrayList<ModuleFactory>();
+    private final Map<UUID, UUID[]> dependencies = new HashMap<UUID, UUID[]>();
+
+    private void register(String name, String... dependsOn) {
+        UUID[] ids = new UUID[dependsOn.length];
+        for (int i = 0; i < dependsOn.length; i++) {
+            ids[i] = id(dependsOn[i]);
+        }
+        this.modules.add(ModuleFactory.resolve(new ModuleKey(id(name), name), TestModule.class));
+        this.dependencies.put(id(name), ids);
+    }
+
+    private static UUID id(String name) {
+        return UUID.nameUUIDFromBytes(name.getBytes());
+    }
+
+    private List<String> sort() {
+        List<String> names = new ArrayList<String>();
+        for (ModuleFactory factory : ModuleRegistrar.sortByDependencies(this.modules, this.dependencies, LOGGER)) {
+            names.add(factory.getKey().getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testRegistrationOrderKept() {
+        this.register("a");
+        this.register("b");
+        this.register("c");
+        assertEquals(Arrays.asList("a", "b", "c"), this.sort());
+    }
+
+    @Test
+    public void testDependenciesFirst() {
+        this.register("sword", "stats", "enchant");
+        this.register("enchant", "stats");
+        this.register("unrelated");
+        this.register("stats");
+        // Each module follows its dependencies, otherwise the earliest registered module goes first
+        assertEquals(Arrays.asList("unrelated", "stats", "enchant", "sword"), this.sort());
+    }
+
+    @Test
+    public void testIgnoredDependencies() {
+        // Dependencies on unregistered modules and on the module itself do not hold a module back
+        this.register("a", "missing", "a");
+        this.register("b", "a");
+        assertEquals(Arrays.asList("a", "b"), this.sort());
+    }
+
+    @Test
+    public void testCycle() {
+        this.register("a", "b");
+        this.register("b", "a");
+        this.register("c");
+        this.register("d", "c");
+        // Modules in a cycle are placed last, in registration order
+        assertEquals(Arrays.asList("c", "d", "a", "b"), this.sort());
+    }
+}
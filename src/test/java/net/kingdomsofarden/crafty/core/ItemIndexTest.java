@@ -0,0 +1,138 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class ItemIndexTest {
+
+    private static final int CAPACITY = 64;
+
+    /**
+     * @return The slot a key is first probed at in an index of {@link #CAPACITY} slots, mirroring ItemIndex
+     */
+    private static int home(long most, long least) {
+        long h = (most ^ least) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (CAPACITY - 1);
+    }
+
+    /**
+     * @return Keys (as most significant bits, least being 0) whose home slots are the given slots, in order
+     */
+    private static long[] keysAt(int... slots) {
+        long[] keys = new long[slots.length];
+        long candidate = 0;
+        for (int i = 0; i < slots.length; i++) {
+            while (home(++candidate, 0) != slots[i]) {
+                // Search on
+            }
+            keys[i] = candidate;
+        }
+        return keys;
+    }
+
+    @Test
+    public void testDeleteShiftsProbeRun() {
+        ItemIndex<String> index = new ItemIndex<String>();
+        // Three keys colliding at slot 10, then one at home in slot 11 that was displaced to slot 13
+        long[] keys = keysAt(10, 10, 10, 11);
+        for (long key : keys) {
+            index.put(key, 0, "item" + key, 0, 0);
+        }
+        for (int removed = 0; removed < keys.length; removed++) {
+            assertEquals("item" + keys[removed], index.remove(keys[removed], 0));
+            assertNull(index.get(keys[removed], 0));
+            for (int i = removed + 1; i < keys.length; i++) {
+                assertEquals("item" + keys[i], index.get(keys[i], 0));
+            }
+            assertEquals(keys.length - removed - 1, index.size());
+        }
+    }
+
+    @Test
+    public void testDeleteWrapsAround() {
+        ItemIndex<String> index = new ItemIndex<String>();
+        // A run from the last slot into the first ones - entries must not be moved before their home slot
+        long[] keys = keysAt(CAPACITY - 1, CAPACITY - 1, 0, CAPACITY - 1, 1);
+        for (long key : keys) {
+            index.put(key, 0, "item" + key, 0, 0);
+        }
+        index.remove(keys[1], 0);
+        index.remove(keys[0], 0);
+        assertEquals("item" + keys[2], index.get(keys[2], 0));
+        assertEquals("item" + keys[3], index.get(keys[3], 0));
+        assertEquals("item" + keys[4], index.get(keys[4], 0));
+        index.remove(keys[2], 0);
+        assertEquals("item" + keys[3], index.get(keys[3], 0));
+        assertEquals("item" + keys[4], index.get(keys[4], 0));
+    }
+
+    @Test
+    public void testMatchesMap() {
+        ItemIndex<UUID> index = new ItemIndex<UUID>();
+        Map<UUID, UUID> expected = new HashMap<UUID, UUID>();
+        List<UUID> keys = new ArrayList<UUID>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            if (keys.isEmpty() || random.nextInt(3) != 0) {
+                // Time ordered ids share most of their bits, which the index must still spread
+                UUID key = new UUID(random.nextInt(64), random.nextInt(256));
+                keys.add(key);
+                assertEquals(expected.put(key, key), index.put(key.getMostSignificantBits(),
+                        key.getLeastSignificantBits(), key, i, 0));
+            } else {
+                UUID key = keys.remove(random.nextInt(keys.size()));
+                assertEquals(expected.remove(key), index.remove(key.getMostSignificantBits(),
+                        key.getLeastSignificantBits()));
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (UUID key : expected.keySet()) {
+            assertSame(expected.get(key), index.get(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+        }
+    }
+
+    @Test
+    public void testPartitions() {
+        ItemIndex<String> index = new ItemIndex<String>();
+        index.put(1, 1, "a", 0, 0);
+        index.put(2, 2, "b", 0, 3);
+        index.put(3, 3, "c", 0, 3);
+        assertEquals(2, index.partitionSize(3));
+        index.setPartition(3, 3, 0);
+        assertEquals(1, index.partitionSize(3));
+        assertEquals(2, index.partitionSize(0));
+        index.remove(1, 1);
+        List<String> removed = new ArrayList<String>();
+        index.removePartition(3, removed);
+        assertEquals(1, removed.size());
+        assertEquals("b", removed.get(0));
+        assertEquals(0, index.partitionSize(3));
+        assertEquals(1, index.partitionSize(0));
+        assertEquals("c", index.get(3, 3));
+    }
+
+    @Test
+    public void testExpire() {
+        ItemIndex<String> index = new ItemIndex<String>();
+        index.put(1, 1, "old", 100, 0);
+        index.put(2, 2, "new", 100, 0);
+        index.touch(2, 2, 300);
+        List<String> expired = new ArrayList<String>();
+        index.expire(200, expired);
+        assertEquals(1, expired.size());
+        assertEquals("old", expired.get(0));
+        assertNull(index.get(1, 1));
+        assertEquals("new", index.get(2, 2));
+        assertEquals(2, index.hitsOf(2, 2));
+    }
+}
@@ -0,0 +1,122 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class ItemSnapshotTest {
+
+    private static final UUID A = new UUID(0x1234, 1);
+    private static final UUID B = new UUID(0x5678, 2);
+
+    private static ItemSnapshot snapshot(long tracker, String a, String b) {
+        Map<UUID, String> data = new LinkedHashMap<UUID, String>();
+        data.put(A, a);
+        if (b != null) {
+            data.put(B, b);
+        }
+        return new ItemSnapshot(tracker, ~tracker, 42, data);
+    }
+
+    private static void assertSame(ItemSnapshot expected, ItemSnapshot actual) {
+        assertEquals(expected.getTrackerMostBits(), actual.getTrackerMostBits());
+        assertEquals(expected.getTrackerLeastBits(), actual.getTrackerLeastBits());
+        assertEquals(expected.getSchemaStamp(), actual.getSchemaStamp());
+        assertEquals(expected.getFingerprint(), actual.getFingerprint());
+        // Stored order is kept
+        assertEquals(new ArrayList<UUID>(expected.getModuleData().keySet()),
+                new ArrayList<UUID>(actual.getModuleData().keySet()));
+        assertEquals(expected.getModuleData(), actual.getModuleData());
+    }
+
+    @Test
+    public void testBytesRoundTrip() throws IOException {
+        ItemSnapshot snapshot = snapshot(7, "level:3", "\u00e9\u4e2d\ud83d\ude00"); // Multi-byte UTF-8
+        byte[] bytes = snapshot.toBytes();
+        assertEquals(snapshot.getEncodedSize(), bytes.length);
+        assertSame(snapshot, ItemSnapshot.fromBytes(bytes));
+        assertSame(snapshot, ItemSnapshot.read(ByteBuffer.wrap(bytes), snapshot.getFingerprint()));
+    }
+
+    @Test
+    public void testReadInPlace() throws IOException {
+        ItemSnapshot first = snapshot(1, "a", null);
+        ItemSnapshot second = snapshot(2, "b", "c");
+        byte[] one = first.toBytes();
+        byte[] two = second.toBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(3 + one.length + two.length);
+        buffer.put(new byte[3]).put(one).put(two);
+        buffer.position(3 + one.length);
+        ByteBuffer slice = buffer.slice(); // Non-zero array offset
+        assertSame(second, ItemSnapshot.read(slice, second.getFingerprint()));
+        assertEquals(0, slice.remaining());
+    }
+
+    @Test
+    public void testMessageRoundTrip() throws IOException {
+        List<ItemSnapshot> snapshots = Arrays.asList(snapshot(1, "a", "b"), snapshot(2, "", null));
+        byte[] message = ItemSnapshot.encode(snapshots);
+        int size = ItemSnapshot.HEADER_SIZE;
+        for (ItemSnapshot snapshot : snapshots) {
+            size += snapshot.getEncodedSize();
+        }
+        assertEquals(size, message.length);
+        List<ItemSnapshot> decoded = ItemSnapshot.decode(message);
+        assertEquals(2, decoded.size());
+        assertSame(snapshots.get(0), decoded.get(0));
+        assertSame(snapshots.get(1), decoded.get(1));
+        assertTrue(ItemSnapshot.decode(ItemSnapshot.encode(new ArrayList<ItemSnapshot>())).isEmpty());
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] bytes = snapshot(1, "some module data", "more").toBytes();
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            try {
+                ItemSnapshot.fromBytes(truncated);
+                fail("Decoded a snapshot truncated to " + length + " bytes");
+            } catch (IOException expected) {
+            }
+            try {
+                ItemSnapshot.read(ByteBuffer.wrap(truncated), 0);
+                fail("Read a snapshot truncated to " + length + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws IOException {
+        byte[] message = ItemSnapshot.encode(Arrays.asList(snapshot(1, "a", null)));
+        message[0] = 99;
+        ItemSnapshot.decode(message);
+    }
+
+    @Test
+    public void testMatches() {
+        ItemSnapshot snapshot = snapshot(1, "a", "b");
+        MemoryItemDataHandle item = new MemoryItemDataHandle();
+        assertFalse(snapshot.matches(item));
+        ItemStorageFormat.setSchemaStamp(item, snapshot.getSchemaStamp());
+        ItemStorageFormat.setFingerprint(item, snapshot.getFingerprint());
+        assertTrue(snapshot.matches(item));
+        ItemStorageFormat.setFingerprint(item, snapshot(1, "a", "changed").getFingerprint());
+        assertFalse(snapshot.matches(item));
+        ItemStorageFormat.setFingerprint(item, snapshot.getFingerprint());
+        ItemStorageFormat.setSchemaStamp(item, snapshot.getSchemaStamp() + 1);
+        assertFalse(snapshot.matches(item));
+    }
+}
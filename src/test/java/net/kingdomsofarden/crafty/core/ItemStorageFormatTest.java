@@ -0,0 +1,117 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class ItemStorageFormatTest {
+
+    private static final UUID A = UUID.fromString("65bd4610-a0d8-11e3-a5e2-0800200c9a66");
+    private static final UUID B = UUID.fromString("f81d4fae-7dec-11d0-a765-00a0c91e6bf6");
+
+    @Test
+    public void testParseBits() {
+        for (UUID id : new UUID[] { A, B, UUID.randomUUID(), new UUID(0, 0), new UUID(-1, -1) }) {
+            String s = id.toString();
+            assertEquals(id.getMostSignificantBits(), ItemStorageFormat.parseMostBits(s));
+            assertEquals(id.getLeastSignificantBits(), ItemStorageFormat.parseLeastBits(s));
+        }
+        // Upper case and unpadded forms are accepted as UUID.fromString accepts them
+        assertEquals(B.getMostSignificantBits(), ItemStorageFormat.parseMostBits(B.toString().toUpperCase()));
+        UUID unpadded = UUID.fromString("1-2-3-4-5");
+        assertEquals(unpadded.getMostSignificantBits(), ItemStorageFormat.parseMostBits("1-2-3-4-5"));
+        assertEquals(unpadded.getLeastSignificantBits(), ItemStorageFormat.parseLeastBits("1-2-3-4-5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMalformed() {
+        ItemStorageFormat.parseMostBits("not-a-uuid");
+    }
+
+    @Test
+    public void testModuleList() {
+        assertEquals(A + ":" + B, ItemStorageFormat.encodeModuleList(Arrays.asList(A, B)));
+        assertEquals("", ItemStorageFormat.encodeModuleList(new ArrayList<UUID>()));
+        List<String> malformed = new ArrayList<String>();
+        assertEquals(Arrays.asList(A, B), ItemStorageFormat.decodeModuleList(A + ":garbage:" + B, malformed));
+        assertEquals(Arrays.asList("garbage"), malformed);
+        assertTrue(ItemStorageFormat.decodeModuleList(null, null).isEmpty());
+        assertTrue(ItemStorageFormat.decodeModuleList("", null).isEmpty());
+        assertEquals(Arrays.asList(A), ItemStorageFormat.decodeModuleList(A + ":x", null));
+    }
+
+    @Test
+    public void testSchemaStamp() {
+        MemoryItemDataHandle data = new MemoryItemDataHandle();
+        assertEquals(0, ItemStorageFormat.getSchemaStamp(data));
+        for (long stamp : new long[] { 1, -1, Long.MIN_VALUE, 0x0123456789ABCDEFL }) {
+            ItemStorageFormat.setSchemaStamp(data, stamp);
+            assertEquals(stamp, ItemStorageFormat.getSchemaStamp(data));
+        }
+        // Malformed stamps read as missing, so the item is migrated and rewritten
+        for (String malformed : new String[] { "", "xyz", "12345678901234567", "-1" }) {
+            data.setData(ItemStorageFormat.SCHEMA_MOST, ItemStorageFormat.SCHEMA_LEAST, malformed);
+            assertEquals(0, ItemStorageFormat.getSchemaStamp(data));
+        }
+    }
+
+    @Test
+    public void testTrackerAndModuleData() {
+        MemoryItemDataHandle data = new MemoryItemDataHandle();
+        assertNull(ItemStorageFormat.getTracker(data));
+        ItemStorageFormat.setTracker(data, B);
+        assertEquals(B.toString(), ItemStorageFormat.getTracker(data));
+        assertNull(ItemStorageFormat.getModuleData(data, A));
+        ItemStorageFormat.setModuleData(data, A, "data");
+        assertEquals("data", ItemStorageFormat.getModuleData(data, A));
+    }
+
+    @Test
+    public void testStoredFingerprint() {
+        MemoryItemDataHandle data = new MemoryItemDataHandle();
+        assertEquals(0, ItemStorageFormat.getFingerprint(data));
+        for (long fingerprint : new long[] { 1, -1, Long.MIN_VALUE, 0x0123456789ABCDEFL }) {
+            ItemStorageFormat.setFingerprint(data, fingerprint);
+            assertEquals(fingerprint, ItemStorageFormat.getFingerprint(data));
+        }
+        data.setData(ItemStorageFormat.FINGERPRINT_MOST, ItemStorageFormat.FINGERPRINT_LEAST, "xyz");
+        assertEquals(0, ItemStorageFormat.getFingerprint(data));
+    }
+
+    @Test
+    public void testFingerprint() {
+        Map<UUID, String> forward = new LinkedHashMap<UUID, String>();
+        forward.put(A, "a");
+        forward.put(B, null);
+        Map<UUID, String> reverse = new LinkedHashMap<UUID, String>();
+        reverse.put(B, null);
+        reverse.put(A, "a");
+        assertEquals(ItemStorageFormat.fingerprint(forward), ItemStorageFormat.fingerprint(reverse));
+        Map<UUID, String> changed = new HashMap<UUID, String>(forward);
+        changed.put(A, "b");
+        assertFalse(ItemStorageFormat.fingerprint(forward) == ItemStorageFormat.fingerprint(changed));
+        assertFalse(ItemStorageFormat.fingerprint(new HashMap<UUID, String>()) == 0);
+    }
+
+    @Test
+    public void testContentId() {
+        UUID id = ItemStorageFormat.contentId(12, 34);
+        assertEquals(ItemStorageFormat.CONTENT_ID_VERSION, id.version());
+        assertEquals(2, id.variant());
+        assertTrue(ItemStorageFormat.isContentId(id.getMostSignificantBits()));
+        assertEquals(id, ItemStorageFormat.contentId(12, 34));
+        assertFalse(id.equals(ItemStorageFormat.contentId(12, 35)));
+        assertFalse(ItemStorageFormat.isContentId(UUID.randomUUID().getMostSignificantBits()));
+    }
+}
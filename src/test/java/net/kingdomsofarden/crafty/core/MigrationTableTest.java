@@ -0,0 +1,81 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class MigrationTableTest {
+
+    private static final UUID A = new UUID(0, 1);
+    private static final UUID B = new UUID(0, 2);
+    private static final UUID C = new UUID(0, 3);
+    private static final UUID D = new UUID(0, 4);
+
+    private static MigrationTable table(UUID... pairs) {
+        Map<UUID, UUID> migrations = new LinkedHashMap<UUID, UUID>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            migrations.put(pairs[i], pairs[i + 1]);
+        }
+        return new MigrationTable(migrations);
+    }
+
+    @Test
+    public void testResolveChain() {
+        MigrationTable table = table(A, B, B, C);
+        assertEquals(B, table.get(A));
+        assertEquals(C, table.resolve(A));
+        assertEquals(C, table.resolve(B));
+        assertEquals(C, table.resolve(C));
+        assertNull(table.get(C));
+        assertEquals(D, table.resolve(D));
+    }
+
+    @Test
+    public void testResolveCycle() {
+        // Misconfigured cycles must not hang item loading
+        MigrationTable table = table(A, B, B, A);
+        UUID resolved = table.resolve(A);
+        assertTrue(resolved.equals(A) || resolved.equals(B));
+    }
+
+    @Test
+    public void testSources() {
+        MigrationTable table = table(A, B, B, C, D, C);
+        assertEquals(new HashSet<UUID>(Arrays.asList(A, B, D)), new HashSet<UUID>(table.getSources(C)));
+        assertTrue(table.getSources(A).isEmpty());
+        assertTrue(table.getSources(B).isEmpty()); // B itself migrates onward, so nothing ends at it
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSourcesImmutable() {
+        table(A, B).getSources(B).add(C);
+    }
+
+    @Test
+    public void testCopiesMigrations() {
+        Map<UUID, UUID> migrations = new HashMap<UUID, UUID>();
+        migrations.put(A, B);
+        MigrationTable table = new MigrationTable(migrations);
+        migrations.put(B, C);
+        assertEquals(B, table.resolve(A));
+    }
+
+    @Test
+    public void testFingerprint() {
+        assertEquals(table(A, B, C, D).fingerprint(), table(C, D, A, B).fingerprint());
+        assertFalse(table(A, B).fingerprint() == table(A, C).fingerprint());
+        assertFalse(table(A, B).fingerprint() == table(B, A).fingerprint());
+        assertTrue(table().isEmpty());
+        assertFalse(table(A, B).isEmpty());
+    }
+}
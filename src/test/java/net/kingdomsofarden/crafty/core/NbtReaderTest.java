@@ -0,0 +1,236 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class NbtReaderTest {
+
+    /**
+     * Writes an item as stored in player data: an id, a count, and a tag holding a display name and
+     * two attribute modifiers, followed by one entry of every other type
+     */
+    private static byte[] item() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtWriter writer = new NbtWriter(new DataOutputStream(bytes));
+        writer.beginCompound("");
+        writer.writeShort("id", (short) 276);
+        writer.beginCompound("tag");
+        writer.beginCompound("display");
+        writer.writeString("Name", "Sword");
+        writer.endCompound();
+        writer.beginList("AttributeModifiers", NbtReader.TAG_COMPOUND, 2);
+        for (int i = 1; i <= 2; i++) {
+            writer.beginCompound(null);
+            writer.writeString("Name", "data" + i);
+            writer.writeLong("UUIDMost", i);
+            writer.writeLong("UUIDLeast", -i);
+            writer.endCompound();
+        }
+        writer.endList();
+        writer.endCompound();
+        writer.writeByte("Count", (byte) 1);
+        writer.writeInt("Slot", 7);
+        writer.writeFloat("Float", 1.5F);
+        writer.writeDouble("Double", -2.25D);
+        writer.writeByteArray("Bytes", new byte[] { 1, 2, 3 });
+        writer.writeIntArray("Ints", new int[] { 4, 5 });
+        writer.beginList("Empty", NbtReader.TAG_STRING, 0);
+        writer.endList();
+        writer.endCompound();
+        return bytes.toByteArray();
+    }
+
+    private static NbtReader reader(byte[] data) {
+        return new NbtReader(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        NbtReader reader = reader(item());
+        assertEquals(NbtReader.TAG_COMPOUND, reader.next());
+        assertEquals("", reader.getName());
+        assertEquals(-1, reader.enter());
+
+        assertEquals(NbtReader.TAG_SHORT, reader.next());
+        assertEquals("id", reader.getName());
+        assertEquals(276, reader.readShort());
+
+        assertEquals(NbtReader.TAG_COMPOUND, reader.next());
+        reader.enter();
+        assertEquals(NbtReader.TAG_COMPOUND, reader.next());
+        reader.enter();
+        assertEquals(NbtReader.TAG_STRING, reader.next());
+        assertEquals("Sword", reader.readString());
+        assertEquals(NbtReader.TAG_END, reader.next());
+        assertEquals(NbtReader.TAG_LIST, reader.next());
+        assertEquals("AttributeModifiers", reader.getName());
+        assertEquals(2, reader.enter());
+        assertEquals(NbtReader.TAG_COMPOUND, reader.getListType());
+        for (int i = 1; i <= 2; i++) {
+            assertEquals(NbtReader.TAG_COMPOUND, reader.next());
+            assertNull(reader.getName());
+            reader.enter();
+            assertEquals(NbtReader.TAG_STRING, reader.next());
+            assertEquals("data" + i, reader.readString());
+            assertEquals(NbtReader.TAG_LONG, reader.next());
+            assertEquals(i, reader.readLong());
+            assertEquals(NbtReader.TAG_LONG, reader.next());
+            assertEquals(-i, reader.readLong());
+            assertEquals(NbtReader.TAG_END, reader.next());
+        }
+        assertEquals(NbtReader.TAG_END, reader.next());
+        assertEquals(NbtReader.TAG_END, reader.next());
+
+        assertEquals(NbtReader.TAG_BYTE, reader.next());
+        assertEquals(1, reader.readByte());
+        assertEquals(NbtReader.TAG_INT, reader.next());
+        assertEquals(7, reader.readInt());
+        assertEquals(NbtReader.TAG_FLOAT, reader.next());
+        assertEquals(1.5F, reader.readFloat(), 0);
+        assertEquals(NbtReader.TAG_DOUBLE, reader.next());
+        assertEquals(-2.25D, reader.readDouble(), 0);
+        assertEquals(NbtReader.TAG_BYTE_ARRAY, reader.next());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reader.readByteArray());
+        assertEquals(NbtReader.TAG_INT_ARRAY, reader.next());
+        assertArrayEquals(new int[] { 4, 5 }, reader.readIntArray());
+        assertEquals(NbtReader.TAG_LIST, reader.next());
+        assertEquals(0, reader.enter());
+        assertEquals(NbtReader.TAG_END, reader.next());
+
+        assertEquals(NbtReader.TAG_END, reader.next());
+        assertEquals(0, reader.getDepth());
+        assertEquals(NbtReader.TAG_END, reader.next());
+    }
+
+    @Test
+    public void testSkipUnreadValues() throws IOException {
+        NbtReader reader = reader(item());
+        reader.next();
+        reader.enter();
+        assertEquals(NbtReader.TAG_SHORT, reader.next());
+        assertEquals(NbtReader.TAG_COMPOUND, reader.next()); // id is skipped
+        reader.skip();
+        assertEquals(NbtReader.TAG_BYTE, reader.next()); // The whole tag compound is passed over
+        assertEquals("Count", reader.getName());
+        assertEquals(1, reader.readByte());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSkipTwice() throws IOException {
+        NbtReader reader = reader(item());
+        reader.next();
+        reader.skip();
+        reader.skip();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadWrongType() throws IOException {
+        NbtReader reader = reader(item());
+        reader.next();
+        reader.enter();
+        reader.next();
+        reader.readInt();
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        NbtReader reader = reader(item());
+        assertTrue(reader.seek("tag.AttributeModifiers"));
+        assertEquals(NbtReader.TAG_LIST, reader.getType());
+        assertEquals(2, reader.enter());
+        reader.next();
+        assertTrue(reader.seek("UUIDLeast"));
+        assertEquals(-1L, reader.readLong());
+        reader.exit();
+        reader.exit();
+        reader.exit();
+        assertEquals(1, reader.getDepth()); // Back in the root compound, past the tag
+        assertTrue(reader.seek("Slot"));
+        assertEquals(7, reader.readInt());
+        assertFalse(reader.seek("id")); // Seeking only moves forward
+    }
+
+    @Test
+    public void testSeekMissing() throws IOException {
+        assertFalse(reader(item()).seek("tag.Unbreakable"));
+        assertFalse(reader(item()).seek("id.Name")); // id is not a compound
+        NbtReader reader = reader(item());
+        assertFalse(reader.seek("tag.display.Lore"));
+        assertEquals(NbtReader.TAG_LIST, reader.next()); // Only the display compound was consumed
+        assertEquals("AttributeModifiers", reader.getName());
+    }
+
+    @Test
+    public void testIsNamed() throws IOException {
+        NbtReader reader = reader(item());
+        reader.next();
+        reader.enter();
+        reader.next();
+        assertTrue(reader.isNamed(NbtReader.encode("id")));
+        assertFalse(reader.isNamed(NbtReader.encode("ID")));
+        assertFalse(reader.isNamed(NbtReader.encode("idx")));
+        // Modified UTF-8, as written by DataOutput.writeUTF
+        assertArrayEquals(new byte[] { (byte) 0xC3, (byte) 0xA9, (byte) 0xC0, (byte) 0x80 },
+                NbtReader.encode("\u00e9\u0000"));
+    }
+
+    @Test
+    public void testByteBuffer() throws IOException {
+        byte[] data = item();
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 4);
+        buffer.putInt(0xCAFEBABE).put(data).position(4);
+        NbtReader reader = new NbtReader(buffer);
+        assertTrue(reader.seek("tag.AttributeModifiers"));
+        reader.skip();
+        assertEquals(NbtReader.TAG_END, reader.next());
+        assertEquals(NbtReader.TAG_BYTE, reader.next());
+        assertEquals(1, reader.readByte());
+        assertTrue(reader.seek("Bytes"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reader.readByteArray());
+        assertEquals(4, buffer.position()); // The buffer passed in is left untouched
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] data = item();
+        for (int length : new int[] { 1, 10, data.length / 2, data.length - 1 }) {
+            NbtReader reader = reader(Arrays.copyOf(data, length));
+            try {
+                reader.next();
+                reader.skip();
+                fail("Read " + length + " of " + data.length + " bytes without error");
+            } catch (EOFException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownType() throws IOException {
+        byte[] data = item();
+        data[0] = 12;
+        try {
+            NbtReader reader = reader(data);
+            reader.next();
+            reader.skip();
+            fail("Accepted unknown type 12");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
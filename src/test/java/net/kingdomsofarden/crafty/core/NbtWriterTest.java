@@ -0,0 +1,80 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class NbtWriterTest {
+
+    private static NbtWriter writer(ByteArrayOutputStream bytes) {
+        return new NbtWriter(new DataOutputStream(bytes));
+    }
+
+    @Test
+    public void testEncoding() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtWriter writer = writer(bytes);
+        writer.beginCompound("");
+        writer.beginList("L", NbtReader.TAG_SHORT, 1);
+        writer.writeShort("ignored", (short) 258);
+        writer.endList();
+        writer.endCompound();
+        assertArrayEquals(new byte[] {
+                NbtReader.TAG_COMPOUND, 0, 0,
+                NbtReader.TAG_LIST, 0, 1, 'L', NbtReader.TAG_SHORT, 0, 0, 0, 1, 1, 2,
+                NbtReader.TAG_END }, bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnnamedCompoundEntry() throws IOException {
+        NbtWriter writer = writer(new ByteArrayOutputStream());
+        writer.beginCompound("");
+        writer.writeInt(null, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testListElementType() throws IOException {
+        NbtWriter writer = writer(new ByteArrayOutputStream());
+        writer.beginCompound("");
+        writer.beginList("L", NbtReader.TAG_INT, 1);
+        writer.writeLong(null, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testListTooLong() throws IOException {
+        NbtWriter writer = writer(new ByteArrayOutputStream());
+        writer.beginCompound("");
+        writer.beginList("L", NbtReader.TAG_INT, 1);
+        writer.writeInt(null, 1);
+        writer.writeInt(null, 2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testListTooShort() throws IOException {
+        NbtWriter writer = writer(new ByteArrayOutputStream());
+        writer.beginCompound("");
+        writer.beginList("L", NbtReader.TAG_INT, 2);
+        writer.writeInt(null, 1);
+        writer.endList();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMismatchedEnd() throws IOException {
+        NbtWriter writer = writer(new ByteArrayOutputStream());
+        writer.beginCompound("");
+        writer.beginList("L", NbtReader.TAG_INT, 0);
+        writer.endCompound();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSecondRoot() throws IOException {
+        NbtWriter writer = writer(new ByteArrayOutputStream());
+        writer.beginCompound("");
+        writer.endCompound();
+        writer.beginCompound("");
+    }
+}
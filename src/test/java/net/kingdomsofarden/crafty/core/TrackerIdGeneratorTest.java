@@ -0,0 +1,115 @@
+package net.kingdomsofarden.crafty.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TrackerIdGeneratorTest {
+
+    private static final int ROUNDS = 20;
+    private static final int IDS_PER_ROUND = 10;
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts threads in batches. Every thread of a batch takes its slot with a first id, then all of them
+     * generate ids at the same time, spread over a few milliseconds so that they overlap. The threads
+     * terminate once the whole batch is done.
+     * @return The number of ids that were generated more than once
+     */
+    private static int generate(final TrackerIdGenerator generator, int threads, int concurrent) throws InterruptedException {
+        final Set<UUID> ids = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        for (int started = 0; started < threads; started += concurrent) {
+            int batch = Math.min(concurrent, threads - started);
+            final CountDownLatch ready = new CountDownLatch(batch);
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(batch);
+            final CountDownLatch release = new CountDownLatch(1);
+            Thread[] batchThreads = new Thread[batch];
+            for (int i = 0; i < batch; i++) {
+                batchThreads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!ids.add(generator.next())) {
+                            duplicates.incrementAndGet();
+                        }
+                        ready.countDown();
+                        await(start);
+                        for (int round = 0; round < ROUNDS; round++) {
+                            for (int j = 0; j < IDS_PER_ROUND; j++) {
+                                if (!ids.add(generator.next())) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        done.countDown();
+                        await(release); // Hold the slot until the whole batch is done
+                    }
+                });
+                batchThreads[i].start();
+            }
+            ready.await();
+            start.countDown();
+            done.await();
+            release.countDown();
+            for (Thread thread : batchThreads) {
+                thread.join();
+            }
+        }
+        assertEquals((long) threads * (ROUNDS * IDS_PER_ROUND + 1) - duplicates.get(), ids.size());
+        return duplicates.get();
+    }
+
+    @Test
+    public void testSlotsReusedAfterThreadsTerminate() throws InterruptedException {
+        // More short-lived threads than there are slots, never more than 64 at once
+        assertEquals(0, generate(TrackerIdGenerator.timeOrdered(1), 3000, 64));
+    }
+
+    @Test
+    public void testSharedSlotWhenAllSlotsHeld() throws InterruptedException {
+        // More live threads than there are slots at the same time
+        assertEquals(0, generate(TrackerIdGenerator.timeOrdered(2), 1200, 1200));
+    }
+
+    @Test
+    public void testTimeOrderedWithinThread() {
+        TrackerIdGenerator generator = TrackerIdGenerator.timeOrdered(TrackerIdGenerator.NODE_COUNT - 1);
+        UUID previous = generator.next();
+        for (int i = 0; i < 100000; i++) {
+            UUID id = generator.next();
+            assertEquals(7, id.version());
+            assertEquals(2, id.variant());
+            assertTrue(id.getMostSignificantBits() >= previous.getMostSignificantBits());
+            assertFalse(id.equals(previous));
+            assertFalse(ItemStorageFormat.isContentId(id.getMostSignificantBits()));
+            previous = id;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeOutOfRange() {
+        TrackerIdGenerator.timeOrdered(TrackerIdGenerator.NODE_COUNT);
+    }
+}
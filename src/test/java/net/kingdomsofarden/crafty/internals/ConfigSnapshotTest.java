@@ -0,0 +1,81 @@
+package net.kingdomsofarden.crafty.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.kingdomsofarden.crafty.core.MigrationTable;
+
+import org.junit.Test;
+
+public class ConfigSnapshotTest {
+
+    private static final UUID A = new UUID(0, 1);
+    private static final UUID B = new UUID(0, 2);
+    private static final UUID C = new UUID(0, 3);
+
+    private static Map<UUID, Integer> order(UUID... ids) {
+        Map<UUID, Integer> order = new HashMap<UUID, Integer>();
+        for (int i = 0; i < ids.length; i++) {
+            order.put(ids[i], i * 10);
+        }
+        return order;
+    }
+
+    private static MigrationTable migrations(UUID from, UUID to) {
+        Map<UUID, UUID> migrations = new HashMap<UUID, UUID>();
+        if (from != null) {
+            migrations.put(from, to);
+        }
+        return new MigrationTable(migrations);
+    }
+
+    private static long stamp(Map<UUID, Integer> order, MigrationTable migrations, Collection<UUID> registered) {
+        return new ConfigSnapshot(order, migrations, registered).getSchemaStamp();
+    }
+
+    @Test
+    public void testStampStable() {
+        List<UUID> registered = Arrays.asList(A, B, C);
+        long stamp = stamp(order(A, B), migrations(null, null), registered);
+        assertTrue(stamp != 0);
+        assertEquals(stamp, stamp(order(A, B), migrations(null, null), registered));
+        // Only the relative order matters, not the weights
+        Map<UUID, Integer> spaced = new HashMap<UUID, Integer>();
+        spaced.put(A, -5);
+        spaced.put(B, 100);
+        assertEquals(stamp, stamp(spaced, migrations(null, null), registered));
+        // Registration order does not matter
+        assertEquals(stamp, stamp(order(A, B), migrations(null, null), Arrays.asList(C, A, B)));
+    }
+
+    @Test
+    public void testStampChanges() {
+        List<UUID> registered = Arrays.asList(A, B, C);
+        long stamp = stamp(order(A, B), migrations(null, null), registered);
+        assertFalse(stamp == stamp(order(B, A), migrations(null, null), registered));
+        assertFalse(stamp == stamp(order(A, B, C), migrations(null, null), registered));
+        assertFalse(stamp == stamp(order(A, B), migrations(C, A), registered));
+        assertFalse(stamp == stamp(order(A, B), migrations(null, null), Arrays.asList(A, B)));
+    }
+
+    @Test
+    public void testOrderChanged() {
+        ConfigSnapshot current = new ConfigSnapshot(order(A, B), migrations(null, null), Arrays.asList(A, B, C));
+        ConfigSnapshot swapped = new ConfigSnapshot(order(B, A), migrations(null, null), Arrays.asList(A, B, C));
+        ConfigSnapshot unordered = new ConfigSnapshot(order(), migrations(null, null), Arrays.asList(A, B, C));
+        assertTrue(current.isOrderChanged(swapped, Arrays.asList(A, B)));
+        // Items with only one of the swapped modules render the same lore
+        assertFalse(current.isOrderChanged(swapped, Arrays.asList(A, C)));
+        assertTrue(current.isOrderChanged(unordered, Arrays.asList(C)));
+        assertTrue(current.isOrdered(A));
+        assertFalse(current.isOrdered(C));
+    }
+}
@@ -0,0 +1,127 @@
+package net.kingdomsofarden.crafty.internals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import net.kingdomsofarden.crafty.core.ItemDataHandle;
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+import net.kingdomsofarden.crafty.core.ItemStorageFormat;
+
+/**
+ * Compares the per item cost of loading module data from a warm start snapshot against reading it from
+ * item NBT, for the part of {@link net.kingdomsofarden.crafty.api.CraftyItem} loading that a restore
+ * replaces. Module deserialization is the same on both paths and is left out. Run with
+ * {@code java WarmStartBenchmark [modules per item]} - not run as part of the test suite.
+ */
+public class WarmStartBenchmark {
+
+    private static final int ITEMS = 4096;
+    private static final int ROUNDS = 400;
+    private static final int WARMUP_ROUNDS = 100;
+    private static final long STAMP = 42;
+
+    /**
+     * Stand-in for {@link BukkitItemDataHandle} that performs the same lookups as NBTUtil.findData: the tag
+     * compound, the Crafty compound, then the entry keyed by the UUID string
+     */
+    private static class NbtLikeDataHandle implements ItemDataHandle {
+
+        private final Map<String, Object> tag = new HashMap<String, Object>();
+        private final Map<String, Object> crafty = new HashMap<String, Object>();
+
+        public NbtLikeDataHandle() {
+            this.tag.put("Crafty", this.crafty);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public String getData(long most, long least) {
+            Map<String, Object> compound = (Map<String, Object>) this.tag.get("Crafty");
+            Object data = compound == null ? null : compound.get(new UUID(most, least).toString());
+            return data == null ? null : ((String[]) data)[0]; // The value unwrapped from its NBTTagString
+        }
+
+        @Override
+        public void setData(long most, long least, String data) {
+            this.crafty.put(new UUID(most, least).toString(), new String[] {data});
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int modules = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        Random random = new Random(1);
+        List<UUID> moduleIds = new ArrayList<UUID>();
+        for (int i = 0; i < modules; i++) {
+            moduleIds.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        NbtLikeDataHandle[] items = new NbtLikeDataHandle[ITEMS];
+        long[][] trackers = new long[ITEMS][];
+        List<ItemSnapshot> snapshots = new ArrayList<ItemSnapshot>();
+        for (int i = 0; i < ITEMS; i++) {
+            Map<UUID, String> data = new LinkedHashMap<UUID, String>();
+            for (UUID id : moduleIds) {
+                data.put(id, "level:" + random.nextInt(100) + ";owner:" + new UUID(random.nextLong(), random.nextLong()));
+            }
+            ItemSnapshot snapshot = new ItemSnapshot(random.nextLong(), random.nextLong(), STAMP, data);
+            NbtLikeDataHandle item = new NbtLikeDataHandle();
+            ItemStorageFormat.setModuleList(item, ItemStorageFormat.encodeModuleList(data.keySet()));
+            for (Map.Entry<UUID, String> entry : data.entrySet()) {
+                ItemStorageFormat.setModuleData(item, entry.getKey(), entry.getValue());
+            }
+            ItemStorageFormat.setSchemaStamp(item, STAMP);
+            ItemStorageFormat.setFingerprint(item, snapshot.getFingerprint());
+            items[i] = item;
+            trackers[i] = new long[] {snapshot.getTrackerMostBits(), snapshot.getTrackerLeastBits()};
+            snapshots.add(snapshot);
+        }
+        File file = File.createTempFile("crafty-warm-start", ".dat");
+        file.deleteOnExit();
+        WarmStartFile.write(file, snapshots);
+
+        Logger logger = Logger.getLogger(WarmStartBenchmark.class.getName());
+        double bestNbt = Double.MAX_VALUE;
+        double bestRestore = Double.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            WarmStartFile warmStart = WarmStartFile.open(file, logger);
+            long start = System.nanoTime();
+            for (NbtLikeDataHandle item : items) {
+                sink += ItemStorageFormat.getSchemaStamp(item);
+                String list = ItemStorageFormat.getModuleList(item);
+                for (UUID id : ItemStorageFormat.decodeModuleList(list, null)) {
+                    sink += ItemStorageFormat.getModuleData(item, id).length();
+                }
+                sink += ItemStorageFormat.getFingerprint(item);
+            }
+            long nbt = System.nanoTime();
+            for (int i = 0; i < ITEMS; i++) {
+                NbtLikeDataHandle item = items[i];
+                long stamp = ItemStorageFormat.getSchemaStamp(item);
+                long fingerprint = ItemStorageFormat.getFingerprint(item);
+                ItemSnapshot snapshot = warmStart.take(trackers[i][0], trackers[i][1]);
+                if (snapshot.getSchemaStamp() != stamp || snapshot.getFingerprint() != fingerprint) {
+                    throw new IllegalStateException("Snapshot does not match its item");
+                }
+                for (String data : snapshot.getModuleData().values()) {
+                    sink += data.length();
+                }
+            }
+            long restore = System.nanoTime();
+            warmStart.close();
+            if (round >= WARMUP_ROUNDS) {
+                bestNbt = Math.min(bestNbt, (nbt - start) / (double) ITEMS);
+                bestRestore = Math.min(bestRestore, (restore - nbt) / (double) ITEMS);
+            }
+        }
+        System.out.printf("%d modules per item: NBT %.0f ns/item, warm start %.0f ns/item (%d)%n",
+                modules, bestNbt, bestRestore, sink & 1);
+    }
+}
@@ -0,0 +1,115 @@
+package net.kingdomsofarden.crafty.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.kingdomsofarden.crafty.core.ItemSnapshot;
+
+import org.junit.Test;
+
+public class WarmStartFileTest {
+
+    private static final Logger LOGGER = Logger.getLogger(WarmStartFileTest.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.OFF); // Rejected files are logged as warnings
+    }
+
+    private static List<ItemSnapshot> snapshots(int count) {
+        List<ItemSnapshot> snapshots = new ArrayList<ItemSnapshot>();
+        for (int i = 0; i < count; i++) {
+            Map<UUID, String> data = new LinkedHashMap<UUID, String>();
+            data.put(new UUID(1, i), "level:" + i);
+            data.put(new UUID(2, i), "owner:" + i);
+            snapshots.add(new ItemSnapshot(i, -i, 42, data));
+        }
+        return snapshots;
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("crafty-warm-start", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = tempFile();
+        List<ItemSnapshot> snapshots = snapshots(50);
+        WarmStartFile.write(file, snapshots);
+        WarmStartFile warmStart = WarmStartFile.open(file, LOGGER);
+        assertEquals(50, warmStart.size());
+        for (int i = snapshots.size() - 1; i >= 0; i--) { // Records are found in any order
+            ItemSnapshot expected = snapshots.get(i);
+            ItemSnapshot taken = warmStart.take(expected.getTrackerMostBits(), expected.getTrackerLeastBits());
+            assertEquals(expected.getSchemaStamp(), taken.getSchemaStamp());
+            assertEquals(expected.getFingerprint(), taken.getFingerprint());
+            assertEquals(expected.getModuleData(), taken.getModuleData());
+        }
+        assertEquals(0, warmStart.size());
+    }
+
+    @Test
+    public void testTakeOnce() throws IOException {
+        File file = tempFile();
+        WarmStartFile.write(file, snapshots(3));
+        WarmStartFile warmStart = WarmStartFile.open(file, LOGGER);
+        assertTrue(warmStart.take(1, -1) != null);
+        assertNull(warmStart.take(1, -1));
+        assertNull(warmStart.take(7, 7));
+        assertEquals(2, warmStart.size());
+        warmStart.close();
+        assertEquals(0, warmStart.size());
+        assertNull(warmStart.take(2, -2));
+    }
+
+    @Test
+    public void testReplaceWhileOpen() throws IOException {
+        // The previous file is still open when snapshots are written on disable
+        File file = tempFile();
+        WarmStartFile.write(file, snapshots(3));
+        WarmStartFile warmStart = WarmStartFile.open(file, LOGGER);
+        WarmStartFile.write(file, snapshots(5));
+        assertEquals(3, warmStart.size());
+        assertEquals(5, WarmStartFile.open(file, LOGGER).size());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File file = tempFile();
+        WarmStartFile.write(file, Collections.<ItemSnapshot>emptyList());
+        assertEquals(0, WarmStartFile.open(file, LOGGER).size());
+    }
+
+    @Test
+    public void testRejected() throws IOException {
+        File file = tempFile();
+        assertTrue(file.delete());
+        assertNull(WarmStartFile.open(file, LOGGER));
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 });
+        out.close();
+        assertNull(WarmStartFile.open(file, LOGGER));
+
+        WarmStartFile.write(file, snapshots(4));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        assertNull(WarmStartFile.open(file, LOGGER));
+    }
+}